@@ -0,0 +1,37 @@
+// In low-power (ambient) mode, we must only output black or white pixels,
+// no grey shades.
+
+precision mediump float;
+// Luminance-alpha: the face's red, then its green.  Blue equals red.
+uniform sampler2D s_texture;
+uniform float u_now;
+uniform vec4 u_tile;
+varying vec2 v_texCoord;
+
+void main(){
+  vec4 texel = texture2D(s_texture, (v_texCoord - u_tile.xy) * u_tile.zw);
+  float red = texel.r;
+  float green = texel.a;
+
+  // The white stripe that forms the watch hand.
+  float s = v_texCoord.s;
+  if (s < u_now + 0.001 && s > u_now - 0.001) {
+    gl_FragColor = vec4(1.0, 1.0, 1.0, 1.0);
+    return;
+  }
+
+  // Output any black pixels.
+  if (red == 0.0 && green == 0.0) {
+    gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);
+    return;
+  }
+
+  // Output existing white decals like the numerals and timeline.
+  if (red == green && red > 0.2) {
+    gl_FragColor = vec4(1.0, 1.0, 1.0, 1.0);
+    return;
+  }
+
+  // Anything else is black.
+  gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);
+}
@@ -0,0 +1,16 @@
+// The same vertex shader is used in full colour and ambient mode.
+
+// Pass in the modelview matrix as a constant.
+uniform mat4 u_mvpMatrix;
+// Pass in the position and texture coordinates per vertex.
+attribute vec4 a_position;
+attribute vec2 a_texCoord;
+// Varyings are sent on to the fragment shader.
+varying vec2 v_texCoord;
+
+void main() {
+  // Transform the vertex coordinate into clip coordinates.
+  gl_Position = u_mvpMatrix * a_position;
+  // Pass through the texture coordinate.
+  v_texCoord = a_texCoord;
+}
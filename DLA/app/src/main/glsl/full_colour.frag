@@ -0,0 +1,90 @@
+// The fragment shader to use when the watch is active
+// (screen on, full brightness and colour).
+
+// Medium precision is common on mobile devices.
+precision mediump float;
+// Pass in the texture map as a constant sampler.  It is luminance-alpha,
+// holding the face's red in the luminance and its green in the alpha.
+uniform sampler2D s_texture;
+// The constant draw radius.
+uniform float u_size;
+// The time in terms of the s (horizontal) texture coordinate.
+// s == 0 is the left edge of the texture, s == 1 the right edge.
+uniform float u_now;
+// Whether to swap blue-left/red-right with red-left/blue-right.
+uniform float u_swap_day_night;
+// Where s_texture sits in the face when it only holds one
+// tile: the s, t of its corner then the scale to the tile.
+uniform vec4 u_tile;
+// The texture coordinate passed in from the vertex shader.
+varying vec2 v_texCoord;
+
+void main(){
+  // Look up the colour in the texture for this fragment.
+  // Filtering of mipmaps occurs here, so we will get a
+  // blended colour.  Blue always equals red in the face, so
+  // the two channels rebuild it exactly.
+  vec4 texel = texture2D(s_texture, (v_texCoord - u_tile.xy) * u_tile.zw);
+  vec4 colour = vec4(texel.r, texel.a, texel.r, 1.0);
+
+  // s in [0..1], the x-coordinate, t in [0..1] as the y-coordinate.
+  float s = v_texCoord.s;
+  float t = v_texCoord.t;
+
+  // If the texel (texture pixel) is black, and we are not drawing the
+  // "hand" line, then we straightaway send out a black pixel to the display.
+  // This immediately culls a lot of fragment processing.
+  if (colour.r == 0.0 && colour.g == 0.0 && colour.b == 0.0) {
+    // If we are in the narrow stripe between blue and red sides, then
+    // output a white pixel of increasing intensity as the radius increases.
+    if (s < u_now + 0.001 && s > u_now - 0.001) {
+      float w = (0.001 - abs(s - u_now)) * 1000.0;
+      colour = vec4(w, w, w, 1.0);
+    } else {
+      gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);
+      return;
+    }
+  } else {
+    // If the texel is grey then we send out
+    // a grey pixel, for the numerals and timeline.  This brightens over
+    // time.
+    if (colour.r == colour.g && colour.g == colour.b) {
+      gl_FragColor = colour * clamp(u_size * 2.0, 0.0, 1.0);
+      return;
+    }
+
+    // Add a blend for coloured pixels near the watch hand.
+    if (s < u_now + 0.004 && s > u_now - 0.004) {
+      float w = (0.004 - abs(s - u_now)) * 250.0;
+      colour = vec4(w, w, w, 1.0) + colour;
+    }
+  }
+
+  // If the radius from the centre is greater than u_size, then return black.
+  float len = length(vec2((s - 0.5) * 2.0, (t - 0.5) * 2.0));
+  // Adding a fudge factor based on the green colour channel makes
+  // different colours expand at different rates.
+  if (len > u_size + colour.g * 0.3) {
+    gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);
+    return;
+  }
+
+  // Create a glow colour depending on the distance from the radius.
+  float glow = clamp((0.3 - (u_size - len)) * 2.0, 0.0, 0.6);
+
+  // Set up the colours for each side.  We start with blue on
+  // the left in the morning, and swap it to the right in the
+  // afternoon.  This is how you tell am/pm at a glance.
+  if ((s > u_now + 0.001 && u_swap_day_night == 0.0)
+    || (s < u_now - 0.001 && u_swap_day_night == 1.0)) {
+    gl_FragColor = colour * vec4(1.0, 1.0, 0.0, 1.0) + vec4(glow, glow, glow, 1.0);
+    return;
+  } else {
+    gl_FragColor = colour * vec4(0.0, 1.0, 1.0, 1.0) + vec4(glow, glow, glow, 1.0);
+    return;
+  }
+
+  // Default case, output a black pixel.  If the face.png bitmap has
+  // been prepared properly, we won't reach here.
+  gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);
+}
@@ -4,23 +4,29 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.content.res.Resources;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLDisplay;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.SystemClock;
 import android.support.wearable.watchface.Gles2WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.text.format.Time;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
 import android.view.animation.AccelerateDecelerateInterpolator;
 import android.view.animation.Interpolator;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.TimeZone;
 
 public class DlaWatchFaceService extends Gles2WatchFaceService {
@@ -30,23 +36,82 @@ public class DlaWatchFaceService extends Gles2WatchFaceService {
         return new DlaEngine();
     }
 
-    private class DlaEngine extends Engine {
+    private class DlaEngine extends Engine implements ResourceManager.Client {
 
         private final long DURATION_MILLIS = 1000L;
         private final String TIME_ZONE = "time-zone";
+        // Page the face in as tiles rather than one texture.  Only worth it for
+        // aggregates much bigger than the 1024 pixel face.png.
+        private final boolean TILED = false;
+        private final int TILE_SIZE = 512;
+        private final int PREFETCH_MINUTES = 2;
+        private final long RELEASE_DELAY_MILLIS = 60000L;
+        private final long MEMORY_BUDGET_BYTES = 8 * 1024 * 1024;
+        // Resident tiles, leaving the rest of MEMORY_BUDGET_BYTES for the
+        // overview (under 3MB at 1024 pixels) and the vertices.
+        private final int TILE_MEMORY_BUDGET = (int) (MEMORY_BUDGET_BYTES / 2);
+        // Time the draw and log percentiles every REPORT_FRAMES frames.
+        private final boolean PROFILE = false;
+        private final int REPORT_FRAMES = 600;
+        private final int PASS_QUAD = 0;
+        private final int PASS_MONO = 1;
+        // How often the interactive hand steps.  1000 or a divisor of it.
+        private final long SWEEP_PERIOD_MILLIS = 1000L;
+        // Raise the aggregate into a 3D heightfield in full colour mode.  Not
+        // with TILED, which never has all the pixels to hand.
+        private final boolean TERRAIN = false;
+        private final int TERRAIN_VERTEX_BUDGET = 4096;
+        // Draw ambient mode as a one bit frame from the CPU even where the
+        // screen isn't low-bit.  Not with TILED.  With PROFILE set, the GL
+        // path is drawn as well so that the two can be compared.
+        private final boolean MONO_AMBIENT = false;
+        // Past this many scissored clears, a mono frame is drawn by the GL
+        // path instead.  The face takes about 550 to 1200 on 320 to 454 pixel
+        // screens, depending on the hand.
+        private final int MAX_MONO_CLEARS = 2048;
+        // In step with ambient.frag.
+        private final float HAND_HALF_WIDTH = 0.001f;
 
         private Time time = new Time();
         private boolean registeredTimeZoneReceiver;
         private float[] modelviewMatrix = new float[16];
         private float[] projectionMatrix = new float[16];
         private float[] mvpMatrix = new float[16];
+        private float[] prefetchMatrix = new float[16];
         private Shaders shaders;
         private FloatBuffer vtBuffer; // Vertex, texture interleaved.
         private int[] textures = new int[1];
         private int textureWidth;
         private int textureHeight;
+        private TiledTexture tiledTexture;
+        private TiledTexture pendingTiledTexture; // Overview decoded, not uploaded.
+        private int prefetchedMinute = -1;
+        private ResourceManager resourceManager;
+        private final SharedCache sharedCache = new SharedCache();
+        private ByteBuffer pendingPixels; // Decoded, waiting to be uploaded.
+        private Terrain terrain;
+        private Terrain pendingTerrain;
+        private float lookAtX;
+        private float lookAtY;
+        private volatile boolean lowBitAmbient; // Read by loadResources.
+        // The face classified as ambient.frag does, one bit per texel.
+        private MonoFrame monoFace;
+        private MonoFrame pendingMonoFace;
+        private MonoFrame monoFrame; // What's on screen, when it is valid.
+        private boolean monoValid;
+        private int monoMinute = -1;
+        private int surfaceWidth;
+        private int surfaceHeight;
+        private Handler handler = new Handler();
+        private long createdMillis;
+        private boolean compilePending;
+        private Profiler profiler;
+        private int profiledFrames;
+        private RedrawScheduler redrawScheduler;
+        private RenderState renderState;
+        private boolean animating;
+        private int faceResource;
         private long startMillis;
-        private int minute = -1;
         private double azimuthRandom = Math.PI - 0.3;
         // Nudge display slightly to prevent burn-in on Amoleds.
         private double xJitter = 0;
@@ -57,7 +122,7 @@ public class DlaWatchFaceService extends Gles2WatchFaceService {
             @Override
             public void onReceive(Context context, Intent intent) {
                 time.clear(intent.getStringExtra(TIME_ZONE));
-                time.setToNow();
+                renderState.mark(RenderState.TIME);
             }
         };
 
@@ -72,111 +137,496 @@ public class DlaWatchFaceService extends Gles2WatchFaceService {
                     .setShowSystemUiTime(false)
                     .build());
             startMillis = SystemClock.elapsedRealtime();
+            createdMillis = startMillis;
+            resourceManager = new ResourceManager(this, RELEASE_DELAY_MILLIS, MEMORY_BUDGET_BYTES);
+            Runnable redraw = new Runnable() {
+                @Override
+                public void run() {
+                    invalidate();
+                }
+            };
+            redrawScheduler = new RedrawScheduler(SWEEP_PERIOD_MILLIS, redraw);
+            renderState = new RenderState(redraw);
+            faceResource = selectFace();
+            // Decode while the GL context and surface are being set up.
+            resourceManager.load();
         }
 
         @Override
-        public void onGlContextCreated() {
-            super.onGlContextCreated();
-            shaders = new Shaders();
-            float[] vts = { // x, y, s, t.
-                    -1, -1, 0, 1,
-                    -1, 1, 0, 0,
-                    1, -1, 1, 1,
-                    1, 1, 1, 0
+        public EGLConfig chooseEglConfig(EGLDisplay eglDisplay) {
+            if (!TERRAIN) {
+                return super.chooseEglConfig(eglDisplay);
+            }
+            // As the default config, plus a depth buffer for the terrain.
+            int[] attributes = {
+                    EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                    EGL14.EGL_RED_SIZE, 8,
+                    EGL14.EGL_GREEN_SIZE, 8,
+                    EGL14.EGL_BLUE_SIZE, 8,
+                    EGL14.EGL_ALPHA_SIZE, 8,
+                    EGL14.EGL_DEPTH_SIZE, 16,
+                    EGL14.EGL_NONE
             };
-            // AllocateDirect prevents the GC moving this memory.
-            vtBuffer = ByteBuffer.allocateDirect(vts.length * 4)
-                    .order(ByteOrder.nativeOrder())
-                    .asFloatBuffer();
-            vtBuffer.put(vts);
+            EGLConfig[] configs = new EGLConfig[1];
+            int[] count = new int[1];
+            if (!EGL14.eglChooseConfig(eglDisplay, attributes, 0, configs, 0, 1, count, 0)
+                    || count[0] == 0) {
+                Log.w("DLA", "No config with a depth buffer, terrain may draw out of order");
+                return super.chooseEglConfig(eglDisplay);
+            }
+            return configs[0];
         }
 
         @Override
         public void onGlSurfaceCreated(int width, int height) {
             super.onGlSurfaceCreated(width, height);
+            surfaceWidth = width;
+            surfaceHeight = height;
+            monoFrame = null; // Wrong size now.
+            if (TERRAIN) {
+                GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+            }
             float aspectRatio = (float) width / height;
             float dist = 0.001f;
             Matrix.frustumM(projectionMatrix, 0,
                     -aspectRatio * dist, aspectRatio * dist, // Left, right.
                     -dist, dist, // Bottom, top.
                     dist, 100); // Near, far.
-            makeTexture();
         }
 
         @Override
-        public void onAmbientModeChanged(boolean inAmbientMode) {
-            super.onAmbientModeChanged(inAmbientMode);
-            if (!inAmbientMode) {
-                xJitter = Math.random() * 0.05 - 0.025;
-                yJitter = Math.random() * 0.05 - 0.025;
-                azimuthRandom = Math.PI + Math.random() * 1.8 - 0.9;
-                startMillis = SystemClock.elapsedRealtime();
+        public void onDestroy() {
+            resourceManager.destroy();
+            sharedCache.giveBackAll();
+            redrawScheduler.stop();
+            handler.removeCallbacks(compileRunnable);
+            if (pendingTiledTexture != null) {
+                pendingTiledTexture.release();
+                pendingTiledTexture = null;
+            }
+            if (tiledTexture != null) {
+                makeContextCurrent();
+                tiledTexture.release();
+            }
+            super.onDestroy();
+        }
+
+        @Override
+        public void loadResources() {
+            if (TILED) {
+                pendingTiledTexture = makeTiledTexture();
+            }
+            if (pendingTiledTexture == null) {
+                pendingPixels = loadPixels();
+                if (TERRAIN) {
+                    pendingTerrain = new Terrain(pendingPixels, textureWidth, textureHeight,
+                            TERRAIN_VERTEX_BUDGET);
+                }
+                if (lowBitAmbient || MONO_AMBIENT) {
+                    pendingMonoFace = borrowMonoFace(pendingPixels);
+                }
+            }
+        }
+
+        @Override
+        public void uploadResources() {
+            shaders = new Shaders();
+            compilePending = true;
+            profiler = new Profiler(PROFILE ? new Profiler.CpuBackend() : null, "quad", "mono");
+            // Play the intro from the first frame that can show it.
+            startMillis = SystemClock.elapsedRealtime();
+            vtBuffer = sharedCache.borrow("dla.quad", new SharedCache.Builder<FloatBuffer>() {
+                @Override
+                public FloatBuffer build() {
+                    return createQuad();
+                }
+            });
+            resourceManager.setBytes("vertices", vtBuffer.capacity() * 4);
+            if (pendingTiledTexture != null) {
+                tiledTexture = pendingTiledTexture;
+                pendingTiledTexture = null;
+                tiledTexture.createOverview();
+                resourceManager.setBytes("texture",
+                        TILE_MEMORY_BUDGET + tiledTexture.getOverviewBytes());
+            } else {
+                createGlTexture(pendingPixels);
+                pendingPixels = null;
+                // Two bytes a texel, and a full mipmap chain adds a third again.
+                resourceManager.setBytes("texture", textureWidth * textureHeight * 2 * 4 / 3);
+            }
+            if (pendingTerrain != null) {
+                terrain = pendingTerrain;
+                pendingTerrain = null;
+                terrain.upload();
+                resourceManager.setBytes("terrain", terrain.getBytes());
+            }
+            if (pendingMonoFace != null) {
+                monoFace = pendingMonoFace;
+                pendingMonoFace = null;
+                monoValid = false;
+                resourceManager.setBytes("mono", monoFace.getBytes());
             }
+        }
+
+        @Override
+        public void releaseResources() {
+            sharedCache.giveBackAll();
+            if (pendingTiledTexture != null) {
+                pendingTiledTexture.release();
+                pendingTiledTexture = null;
+            }
+            pendingPixels = null;
+            pendingTerrain = null;
+            pendingMonoFace = null;
+            monoFace = null;
+            monoFrame = null;
+            if (shaders == null) {
+                return; // Still loading, nothing on the GPU yet.
+            }
+            makeContextCurrent();
+            shaders.release();
+            shaders = null;
+            profiler.release();
+            vtBuffer = null;
+            if (tiledTexture != null) {
+                tiledTexture.release();
+                tiledTexture = null;
+            } else {
+                GLES20.glDeleteTextures(1, textures, 0);
+            }
+            if (terrain != null) {
+                terrain.release();
+                terrain = null;
+            }
+        }
+
+        @Override
+        public void onResourcesLoaded() {
             invalidate();
         }
 
+        @Override
+        public void discardLoad() {
+            if (pendingTiledTexture != null) {
+                pendingTiledTexture.release();
+                pendingTiledTexture = null;
+            }
+            pendingPixels = null;
+            pendingTerrain = null;
+            pendingMonoFace = null;
+            sharedCache.giveBack(facePixelsKey());
+            sharedCache.giveBack(monoFaceKey());
+        }
+
+        private final Runnable compileRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (shaders == null) {
+                    return;
+                }
+                makeContextCurrent();
+                if (shaders.compileNext()) {
+                    handler.post(this);
+                }
+            }
+        };
+
+        private void onFrameDrawn() {
+            if (createdMillis != 0) {
+                Log.i("DLA", "First frame after "
+                        + (SystemClock.elapsedRealtime() - createdMillis) + " ms");
+                createdMillis = 0;
+            }
+            if (compilePending) {
+                compilePending = false;
+                handler.post(compileRunnable);
+            }
+        }
+
+        @Override
+        public void onAmbientModeChanged(boolean inAmbientMode) {
+            super.onAmbientModeChanged(inAmbientMode);
+            updateRedrawScheduler();
+            // Coming out of ambient, swing in from a new angle.
+            renderState.mark(inAmbientMode
+                    ? RenderState.MODE
+                    : RenderState.MODE | RenderState.GEOMETRY);
+        }
+
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
+            resourceManager.onVisibilityChanged(visible);
+            updateRedrawScheduler();
             if (visible) {
                 registerReceiver();
                 time.clear(TimeZone.getDefault().getID());
-                time.setToNow();
-                startMillis = SystemClock.elapsedRealtime();
-                invalidate();
+                renderState.mark(RenderState.TIME | RenderState.VISIBILITY);
             } else {
                 unregisterReceiver();
             }
         }
 
+        @Override
+        public void onPropertiesChanged(Bundle properties) {
+            super.onPropertiesChanged(properties);
+            lowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+        }
+
         @Override
         public void onTimeTick() { // Ambient mode refresh.
             super.onTimeTick();
-            time.setToNow();
-            int currentMinute = time.minute;
-            if (minute != currentMinute) {
-                minute = currentMinute;
-                invalidate();
-            }
+            renderState.mark(RenderState.TIME);
         }
 
         @Override
         public void onDraw() {
             super.onDraw();
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            GLES20.glClear(TERRAIN
+                    ? GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT
+                    : GLES20.GL_COLOR_BUFFER_BIT);
+            if (!resourceManager.prepareFrame()) {
+                return; // Leave the frame cleared until the texture is back.
+            }
+            reconcile(renderState.take());
+            profiler.collect();
+            boolean mono = isInAmbientMode() && (lowBitAmbient || MONO_AMBIENT)
+                    && hasMonoFace();
+            if (mono && PROFILE) {
+                drawFace(); // Only for timing, drawMono() clears it away.
+            }
+            if (!mono || !drawMono()) {
+                drawFace();
+            }
+            if (PROFILE && ++profiledFrames % REPORT_FRAMES == 0) {
+                Log.i("DLA", profiler.report());
+            }
+            redrawScheduler.onFrameDrawn(animating);
+            onFrameDrawn();
+        }
+
+        /**
+         * Bring everything up to date with what changed since the last frame,
+         * doing each piece of work once however many events asked for it.
+         */
+        private void reconcile(int dirty) {
+            if ((dirty & RenderState.TIME) != 0) {
+                time.setToNow();
+            }
+            if ((dirty & (RenderState.MODE | RenderState.VISIBILITY)) != 0) {
+                startMillis = SystemClock.elapsedRealtime();
+            }
+            if ((dirty & (RenderState.MODE | RenderState.GEOMETRY)) != 0) {
+                monoValid = false;
+            }
+            if ((dirty & RenderState.GEOMETRY) != 0) {
+                xJitter = Math.random() * 0.05 - 0.025;
+                yJitter = Math.random() * 0.05 - 0.025;
+                azimuthRandom = Math.PI + Math.random() * 1.8 - 0.9;
+            }
+        }
+
+        // The hand only steps by itself in interactive mode while visible.
+        private void updateRedrawScheduler() {
+            if (isVisible() && !isInAmbientMode()) {
+                redrawScheduler.start();
+            } else {
+                redrawScheduler.stop();
+            }
+        }
+
+        private void drawTiles() {
+            if (tiledTexture.update(mvpMatrix)) {
+                invalidate();
+            }
+            tiledTexture.draw(shaders);
+            if (prefetchedMinute != time.minute) {
+                prefetchedMinute = time.minute;
+                float nowSeconds = (time.hour % 12) * 3600 + time.minute * 60;
+                for (int i = 1; i <= PREFETCH_MINUTES; i++) {
+                    createModelviewMatrix(textureSAt(nowSeconds + i * 60), 1);
+                    Matrix.multiplyMM(prefetchMatrix, 0, projectionMatrix, 0, modelviewMatrix, 0);
+                    tiledTexture.prefetch(prefetchMatrix);
+                }
+            }
+        }
+
+        private void drawFace() {
             if (isInAmbientMode()) {
                 initialiseAmbient();
             } else {
                 initialiseFullColour();
             }
-            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            profiler.begin(PASS_QUAD);
+            if (tiledTexture != null) {
+                drawTiles();
+            } else if (terrain != null && !isInAmbientMode()) {
+                terrain.draw(shaders, mvpMatrix, lookAtX, lookAtY);
+            } else {
+                GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            }
+            profiler.end();
+        }
+
+        /**
+         * The mono face is only built on loading if the screen wants it.  If
+         * the low-bit property arrives after that, build it now from the face
+         * pixels, which stay borrowed while the face is resident.
+         */
+        private boolean hasMonoFace() {
+            if (monoFace == null && tiledTexture == null) {
+                monoFace = borrowMonoFace(loadPixels());
+                resourceManager.setBytes("mono", monoFace.getBytes());
+            }
+            return monoFace != null;
+        }
+
+        private MonoFrame borrowMonoFace(final ByteBuffer pixels) {
+            return sharedCache.borrow(monoFaceKey(), new SharedCache.Builder<MonoFrame>() {
+                @Override
+                public MonoFrame build() {
+                    return createMonoFace(pixels);
+                }
+            });
+        }
+
+        /**
+         * Ambient mode without the GL pipeline.  The frame is worked out on the
+         * CPU once a minute, when the hand and the camera following it move,
+         * and is then only a few scissored clears to put on screen.
+         *
+         * @return false, having drawn nothing, if the frame needs more than
+         * MAX_MONO_CLEARS clears.
+         */
+        private boolean drawMono() {
+            if (PROFILE) {
+                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT); // The GL path was only for timing.
+            }
+            long buildNanos = -1;
+            if (monoFrame == null) {
+                monoFrame = new MonoFrame(surfaceWidth, surfaceHeight);
+                monoValid = false;
+            }
+            int currentMinute = time.hour * 60 + time.minute;
+            if (!monoValid || monoMinute != currentMinute) {
+                long start = System.nanoTime();
+                projectMonoFrame();
+                buildNanos = System.nanoTime() - start;
+                monoMinute = currentMinute;
+                monoValid = true;
+            }
+            profiler.begin(PASS_MONO);
+            boolean presented = monoFrame.present(MAX_MONO_CLEARS);
+            profiler.end();
+            if (PROFILE && buildNanos >= 0) {
+                // What a screen of white pixels costs stands in for energy.
+                Log.i("DLA", "Mono ambient: built in " + buildNanos / 1000 + " us, "
+                        + (presented ? monoFrame.getClears() : "over " + MAX_MONO_CLEARS)
+                        + " clears, " + monoFrame.countSet()
+                        + " white pixels; GL ambient: " + surfaceWidth * surfaceHeight
+                        + " fragments and texture reads");
+            }
+            return presented;
+        }
+
+        /**
+         * Find which screen pixels are white by following each one back onto
+         * the face.  The face is flat at z = 0, so the x, y and w rows of the
+         * MVP's x, y and translation columns take it to the screen as a 3x3
+         * matrix, and that matrix's adjugate takes the screen back to it.
+         */
+        private void projectMonoFrame() {
+            float textureS = getTextureS();
+            createModelviewMatrix(textureS, 1);
+            Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, modelviewMatrix, 0);
+            float[] m = mvpMatrix;
+            float a = m[0], b = m[4], c = m[12];
+            float d = m[1], e = m[5], f = m[13];
+            float g = m[3], h = m[7], k = m[15];
+            float adjA = e * k - f * h, adjB = c * h - b * k, adjC = b * f - c * e;
+            float adjD = f * g - d * k, adjE = a * k - c * g, adjF = c * d - a * f;
+            float adjG = d * h - e * g, adjH = b * g - a * h, adjK = a * e - b * d;
+            float determinant = a * adjA + b * adjD + c * adjG;
+            int faceWidth = monoFace.getWidth();
+            int faceHeight = monoFace.getHeight();
+            monoFrame.clear();
+            for (int y = 0; y < surfaceHeight; y++) {
+                float screenY = 1 - (y + 0.5f) * 2 / surfaceHeight;
+                for (int x = 0; x < surfaceWidth; x++) {
+                    float screenX = (x + 0.5f) * 2 / surfaceWidth - 1;
+                    float w = adjG * screenX + adjH * screenY + adjK;
+                    if (w * determinant <= 0) {
+                        continue; // The ray never meets the face.
+                    }
+                    float s = ((adjA * screenX + adjB * screenY + adjC) / w + 1) / 2;
+                    float t = (1 - (adjD * screenX + adjE * screenY + adjF) / w) / 2;
+                    if (s < 0 || s >= 1 || t < 0 || t >= 1) {
+                        continue;
+                    }
+                    if ((s < textureS + HAND_HALF_WIDTH && s > textureS - HAND_HALF_WIDTH)
+                            || monoFace.get((int) (s * faceWidth), (int) (t * faceHeight))) {
+                        monoFrame.set(x, y);
+                    }
+                }
+            }
+        }
+
+        /**
+         * White where ambient.frag would draw a decal, so where the texel is
+         * a grey brighter than 0.2.
+         */
+        private MonoFrame createMonoFace(ByteBuffer pixels) {
+            MonoFrame face = new MonoFrame(textureWidth, textureHeight);
+            for (int y = 0; y < textureHeight; y++) {
+                for (int x = 0; x < textureWidth; x++) {
+                    int index = (y * textureWidth + x) * 2;
+                    int red = pixels.get(index) & 0xff;
+                    if (red > 51 && red == (pixels.get(index + 1) & 0xff)) {
+                        face.set(x, y);
+                    }
+                }
+            }
+            return face;
+        }
+
+        private FloatBuffer getVtBuffer() {
+            return tiledTexture != null ? tiledTexture.getVtBuffer() : vtBuffer;
         }
 
         private void initialiseAmbient() {
             float textureS = getTextureS();
             createModelviewMatrix(textureS, 1);
             Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, modelviewMatrix, 0);
-            shaders.setAmbientParameters(mvpMatrix, vtBuffer, textureS);
+            shaders.setAmbientParameters(mvpMatrix, getVtBuffer(), textureS);
         }
 
         private void initialiseFullColour() {
             float textureS = getTextureS();
             long elapsed = SystemClock.elapsedRealtime() - startMillis;
-            if (elapsed < DURATION_MILLIS) {
+            animating = elapsed < DURATION_MILLIS;
+            if (animating) {
                 invalidate();
             }
             double delta = interpolator.getInterpolation(
                     Math.min((float) elapsed / DURATION_MILLIS, 1));
             createModelviewMatrix(textureS, delta);
             Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, modelviewMatrix, 0);
-            shaders.setFullColourParameters(mvpMatrix, vtBuffer,
+            shaders.setFullColourParameters(mvpMatrix, getVtBuffer(),
                     (float) (4.0 / 3 * delta), textureS, time.hour > 11);
         }
 
         private float getTextureS() {
-            time.setToNow();
-            float nowSeconds = (time.hour % 12) * 3600 + time.minute * 60 + time.second;
-            return nowSeconds * 864f / textureWidth / 43200f + 80.5f / textureWidth;
+            long now = System.currentTimeMillis();
+            time.set(now);
+            // Include the fraction of a second for sweep periods under 1000.
+            return textureSAt((time.hour % 12) * 3600 + time.minute * 60 + time.second
+                    + now % 1000 / 1000f);
+        }
+
+        // The timeline runs from pixel 80.5 to 944.5 across the 1024 pixel
+        // face.png.  Bigger aggregates are drawn to the same proportions.
+        private float textureSAt(float nowSeconds) {
+            return (nowSeconds * 864f / 43200f + 80.5f) / 1024f;
         }
 
         private void createModelviewMatrix(float texS, double delta) {
@@ -184,11 +634,13 @@ public class DlaWatchFaceService extends Gles2WatchFaceService {
             double y = x * x * x / 2.51;
             double distance = 2.3 - delta * 2;
             double angle = azimuthRandom - (1 - delta);
+            lookAtX = (float) (x + xJitter);
+            lookAtY = (float) (y + yJitter);
             Matrix.setLookAtM(modelviewMatrix, 0,
                     (float) (x + distance * 0.5 * Math.sin(angle)), // Eye x.
                     (float) (y + distance * 0.5 * Math.cos(angle)), // Eye y.
                     (float) (distance * 0.3 + 0.05), // Eye z.
-                    (float) (x + xJitter), (float) (y + yJitter), 0, // Look-at.
+                    lookAtX, lookAtY, 0, // Look-at.
                     0, 0, 1); // Up
         }
 
@@ -209,43 +661,100 @@ public class DlaWatchFaceService extends Gles2WatchFaceService {
             DlaWatchFaceService.this.unregisterReceiver(timeZoneReceiver);
         }
 
-        private void makeTexture() {
-            int[] pixels = loadBitmapAsPixels();
-            argbToAbgr(pixels);
-            createGlTexture(pixels);
+        /**
+         * At full zoom the eye is about 0.2 from the look-at point and the
+         * frustum is 90 degrees tall, so the screen covers about 0.4 of the
+         * face's 2 units.  On any watch that wants more than the 1024 pixels
+         * of face.png, so there are no smaller copies to choose from yet.
+         */
+        private int selectFace() {
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            double eyeDistance = Math.hypot(0.15, 0.14);
+            float required = (float) (Math.min(metrics.widthPixels, metrics.heightPixels)
+                    / eyeDistance);
+            return new TextureSelector()
+                    .add(R.drawable.face, 1024)
+                    .select(required);
         }
 
-        private int[] loadBitmapAsPixels() {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-            Bitmap bitmap = BitmapFactory.decodeResource(
-                    getApplicationContext().getResources(), R.drawable.face, options);
-            textureWidth = bitmap.getWidth();
-            textureHeight = bitmap.getHeight();
-            int[] pixels = new int[textureWidth * textureHeight];
-            bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0,
-                    bitmap.getWidth(), bitmap.getHeight());
-            return pixels;
+        /**
+         * Open the face for tiling and decode its overview, off the GL thread.
+         *
+         * @return null if the face can't be tiled, so load it whole instead.
+         */
+        private TiledTexture makeTiledTexture() {
+            try {
+                return new TiledTexture(getResources(), R.drawable.face,
+                        TILE_SIZE, TILE_MEMORY_BUDGET, new Runnable() {
+                    @Override
+                    public void run() {
+                        postInvalidate();
+                    }
+                });
+            } catch (IOException e) {
+                Log.e("DLA", "Can't tile the face, loading it whole", e);
+                return null;
+            }
         }
 
-        private void argbToAbgr(int[] pixels) {
-            int length = pixels.length;
-            for (int i = 0; i < length; i++) {
-                int red = (pixels[i] >> 16) & 0xff;
-                int green = (pixels[i] >> 8) & 0xff;
-                int blue = pixels[i] & 0xff;
-                int alpha = pixels[i] & 0xff000000;
-                pixels[i] = alpha | (green << 8) | (red) | (blue << 16);
-            }
+        /**
+         * The face as luminance-alpha, red in the luminance and green in the
+         * alpha.  Blue always matches red in the face, so the shaders can
+         * rebuild every texel exactly from half the bytes.
+         */
+        private ByteBuffer loadPixels() {
+            final Resources resources = getApplicationContext().getResources();
+            PixelDecoder.Image face = sharedCache.borrow(facePixelsKey(),
+                    new SharedCache.Builder<PixelDecoder.Image>() {
+                        @Override
+                        public PixelDecoder.Image build() {
+                            PixelDecoder decoder = new PixelDecoder(resources,
+                                    GLES20.GL_LUMINANCE_ALPHA);
+                            ByteBuffer pixels = decoder.decode(faceResource, null);
+                            decoder.release();
+                            return new PixelDecoder.Image(pixels, decoder.getWidth(),
+                                    decoder.getHeight());
+                        }
+                    });
+            textureWidth = face.width;
+            textureHeight = face.height;
+            return face.pixels;
+        }
+
+        // Borrowed from loading until the resources are released, so that an
+        // engine starting while another is resident doesn't decode the face
+        // again.
+        private String facePixelsKey() {
+            return "dla.face." + faceResource;
+        }
+
+        private String monoFaceKey() {
+            return "dla.mono." + faceResource;
+        }
+
+        private FloatBuffer createQuad() {
+            float[] vts = { // x, y, s, t.
+                    -1, -1, 0, 1,
+                    -1, 1, 0, 0,
+                    1, -1, 1, 1,
+                    1, 1, 1, 0
+            };
+            // AllocateDirect prevents the GC moving this memory.
+            FloatBuffer quad = ByteBuffer.allocateDirect(vts.length * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            quad.put(vts);
+            return quad;
         }
 
-        private void createGlTexture(int[] pixels) {
+        private void createGlTexture(ByteBuffer pixels) {
             GLES20.glGenTextures(1, textures, 0);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
-            IntBuffer intBuffer = IntBuffer.wrap(pixels);
+            // Rows of two byte texels needn't start on four byte boundaries.
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 2);
             GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0,
-                    GLES20.GL_RGBA, textureWidth, textureHeight, 0,
-                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, intBuffer);
+                    GLES20.GL_LUMINANCE_ALPHA, textureWidth, textureHeight, 0,
+                    GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, pixels);
             GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
                     GLES20.GL_TEXTURE_MIN_FILTER,
@@ -0,0 +1,207 @@
+package uk.co.drdv.wearable.dla;
+
+import android.opengl.GLES20;
+
+import java.util.Arrays;
+
+/**
+ * A black and white frame at one bit per pixel, built on the CPU and put on
+ * screen with scissored clears, so no program, texture or vertex buffer is
+ * touched.
+ *
+ * Meant for low-bit ambient mode, where the screen can only show black and
+ * white anyway.  Rows are packed 32 pixels to an int, top row first.  A run
+ * of white pixels that repeats down consecutive rows is cleared as one
+ * rectangle.
+ *
+ * A busy frame can take thousands of clears, more than the one draw call of
+ * the GL path would cost, so present() gives up past a limit and the caller
+ * draws that way instead.
+ */
+public class MonoFrame {
+
+    private final int width;
+    private final int height;
+    private final int words; // Ints per row.
+    private final int[] bits;
+    private int[] unclear; // White pixels plan() hasn't covered yet.
+    private int[] rects = new int[64]; // Left, top, right, bottom from plan().
+    private final float[] clearColour = new float[4];
+    private int clears;
+
+    public MonoFrame(int width, int height) {
+        this.width = width;
+        this.height = height;
+        words = (width + 31) / 32;
+        bits = new int[words * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBytes() {
+        return bits.length * 4;
+    }
+
+    public void clear() {
+        Arrays.fill(bits, 0);
+    }
+
+    /**
+     * Copy a frame of the same size.
+     */
+    public void copyFrom(MonoFrame frame) {
+        System.arraycopy(frame.bits, 0, bits, 0, bits.length);
+    }
+
+    /**
+     * Make a pixel white.  Pixels outside the frame are ignored.
+     */
+    public void set(int x, int y) {
+        if (x >= 0 && x < width && y >= 0 && y < height) {
+            bits[y * words + (x >>> 5)] |= 1 << (x & 31);
+        }
+    }
+
+    public boolean get(int x, int y) {
+        return (bits[y * words + (x >>> 5)] & (1 << (x & 31))) != 0;
+    }
+
+    /**
+     * Make white every pixel that is white in mask, with the mask's top left
+     * corner at x, y.
+     */
+    public void stamp(MonoFrame mask, int x, int y) {
+        for (int row = 0; row < mask.height; row++) {
+            for (int column = 0; column < mask.width; column++) {
+                if (mask.get(column, row)) {
+                    set(x + column, y + row);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of white pixels, which is what an OLED screen pays for.
+     */
+    public int countSet() {
+        int count = 0;
+        for (int word : bits) {
+            count += Integer.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return how many rectangles the last plan() found, or maxClears + 1 if
+     * it gave up.
+     */
+    public int getClears() {
+        return clears;
+    }
+
+    /**
+     * Draw the white pixels over whatever is on screen, which should already
+     * be black.  The frame must be the size of the surface.  Call on the GL
+     * thread.
+     *
+     * @return false, having drawn nothing, if that would take more than
+     * maxClears clears.
+     */
+    public boolean present(int maxClears) {
+        if (plan(maxClears) > maxClears) {
+            return false;
+        }
+        GLES20.glGetFloatv(GLES20.GL_COLOR_CLEAR_VALUE, clearColour, 0);
+        GLES20.glClearColor(1, 1, 1, 1);
+        GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        for (int i = 0; i < clears * 4; i += 4) {
+            // GL counts rows from the bottom of the surface.
+            GLES20.glScissor(rects[i], height - rects[i + 3],
+                    rects[i + 2] - rects[i], rects[i + 3] - rects[i + 1]);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        }
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glClearColor(clearColour[0], clearColour[1], clearColour[2], clearColour[3]);
+        return true;
+    }
+
+    /**
+     * Find the rectangles present() would clear, without touching GL.
+     *
+     * @return how many there are, or maxClears + 1 if there are more than
+     * maxClears.
+     */
+    public int plan(int maxClears) {
+        if (unclear == null) {
+            unclear = new int[bits.length];
+        }
+        System.arraycopy(bits, 0, unclear, 0, bits.length);
+        clears = 0;
+        for (int top = 0; top < height; top++) {
+            int left = nextPixel(top, 0, true);
+            while (left < width) {
+                if (clears == maxClears) {
+                    return ++clears;
+                }
+                int right = nextPixel(top, left, false);
+                int bottom = top + 1;
+                while (bottom < height && isRun(bottom, left, right)) {
+                    bottom++;
+                }
+                for (int row = top; row < bottom; row++) {
+                    for (int x = left; x < right; x++) {
+                        unclear[row * words + (x >>> 5)] &= ~(1 << (x & 31));
+                    }
+                }
+                if (clears * 4 == rects.length) {
+                    rects = Arrays.copyOf(rects, rects.length * 2);
+                }
+                rects[clears * 4] = left;
+                rects[clears * 4 + 1] = top;
+                rects[clears * 4 + 2] = right;
+                rects[clears * 4 + 3] = bottom;
+                clears++;
+                left = nextPixel(top, right, true);
+            }
+        }
+        return clears;
+    }
+
+    /**
+     * The left, top, right and bottom of each rectangle from the last
+     * plan(), top row first.  Only the first getClears() are in use.
+     */
+    int[] getRects() {
+        return rects;
+    }
+
+    // The first pixel from x on that is still to clear (white) or isn't
+    // (black), or width if there isn't one.
+    private int nextPixel(int row, int x, boolean white) {
+        while (x < width) {
+            int word = unclear[row * words + (x >>> 5)];
+            if ((x & 31) == 0 && word == (white ? 0 : -1)) {
+                x += 32; // Nothing to find in this word.
+                continue;
+            }
+            if (((word & (1 << (x & 31))) != 0) == white) {
+                return x;
+            }
+            x++;
+        }
+        return width;
+    }
+
+    // Whether the row has exactly the run left to right, with black either
+    // side, so that it can be cleared along with the one above.
+    private boolean isRun(int row, int left, int right) {
+        return nextPixel(row, left, false) == right
+                && (left == 0 || nextPixel(row, left - 1, true) == left);
+    }
+}
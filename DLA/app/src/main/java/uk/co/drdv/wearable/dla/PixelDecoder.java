@@ -0,0 +1,226 @@
+package uk.co.drdv.wearable.dla;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Decodes images straight into direct buffers of RGBA or luminance-alpha
+ * bytes, ready for glTexImage2D.
+ *
+ * The image is decoded a strip of rows at a time into one small bitmap that
+ * is reused for every strip, so neither a full size Bitmap nor a full size
+ * int[] is ever on the Java heap.  The direct buffer is the only copy of the
+ * whole image, and it can be reused for the next decode.
+ *
+ * Luminance-alpha takes the luminance from red and the alpha from green, and
+ * drops blue and alpha.  It halves the bytes for images that only ever need
+ * two channels.
+ *
+ * Use from one thread at a time.
+ */
+public class PixelDecoder {
+
+    private static final int STRIP_ROWS = 64;
+
+    /**
+     * A decoded image and its size, for keeping after the decoder has gone.
+     */
+    public static class Image {
+        public final ByteBuffer pixels;
+        public final int width;
+        public final int height;
+
+        public Image(ByteBuffer pixels, int width, int height) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final Resources resources;
+    private final int format;
+    private Bitmap strip;
+    private int[] stripPixels;
+    private short[] stripShorts; // Luminance-alpha only.
+    private ByteBuffer buffer; // The one being filled.
+    private IntBuffer ints; // Views of it for each format.
+    private ShortBuffer shorts;
+    private int width;
+    private int height;
+
+    public PixelDecoder(Resources resources) {
+        this(resources, GLES20.GL_RGBA);
+    }
+
+    /**
+     * @param format GL_RGBA or GL_LUMINANCE_ALPHA.
+     */
+    public PixelDecoder(Resources resources, int format) {
+        this.resources = resources;
+        this.format = format;
+    }
+
+    /**
+     * Decode a whole image resource.
+     *
+     * @param reuse a buffer from an earlier decode, or null.  It is used if
+     *              it is big enough.
+     */
+    public ByteBuffer decode(int resourceId, ByteBuffer reuse) {
+        BitmapRegionDecoder decoder;
+        try {
+            InputStream inputStream = resources.openRawResource(resourceId);
+            try {
+                decoder = BitmapRegionDecoder.newInstance(inputStream, false);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            // Not a format the region decoder knows, so decode it whole.
+            Log.w("GL", "Can't stream resource " + resourceId + ", decoding it whole", e);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            Bitmap bitmap = BitmapFactory.decodeResource(resources, resourceId, options);
+            ByteBuffer pixels = decode(bitmap, reuse);
+            bitmap.recycle();
+            return pixels;
+        }
+        try {
+            return decode(decoder, new Rect(0, 0, decoder.getWidth(), decoder.getHeight()), reuse);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Decode part of an image that is already open.
+     */
+    public ByteBuffer decode(BitmapRegionDecoder decoder, Rect rect, ByteBuffer reuse) {
+        start(rect.width(), rect.height(), reuse);
+        int stripRows = Math.min(STRIP_ROWS, height);
+        if (strip == null || strip.getWidth() < width || strip.getHeight() < stripRows) {
+            if (strip != null) {
+                strip.recycle();
+            }
+            strip = Bitmap.createBitmap(width, stripRows, Bitmap.Config.ARGB_8888);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        // The region is drawn into the strip without changing its size.
+        options.inBitmap = strip;
+        Rect stripRect = new Rect();
+        for (int top = 0; top < height; top += STRIP_ROWS) {
+            int rows = Math.min(STRIP_ROWS, height - top);
+            stripRect.set(rect.left, rect.top + top, rect.right, rect.top + top + rows);
+            decoder.decodeRegion(stripRect, options);
+            put(strip, 0, rows);
+        }
+        return finish();
+    }
+
+    /**
+     * Copy a bitmap that has already been decoded.  The caller recycles it.
+     */
+    public ByteBuffer decode(Bitmap bitmap, ByteBuffer reuse) {
+        start(bitmap.getWidth(), bitmap.getHeight(), reuse);
+        for (int top = 0; top < height; top += STRIP_ROWS) {
+            put(bitmap, top, Math.min(STRIP_ROWS, height - top));
+        }
+        return finish();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBytesPerPixel() {
+        return format == GLES20.GL_LUMINANCE_ALPHA ? 2 : 4;
+    }
+
+    /**
+     * Free the strip.  The decoder can still be used, it will make another.
+     */
+    public void release() {
+        if (strip != null) {
+            strip.recycle();
+            strip = null;
+        }
+        stripPixels = null;
+        stripShorts = null;
+    }
+
+    private void start(int width, int height, ByteBuffer reuse) {
+        this.width = width;
+        this.height = height;
+        if (stripPixels == null || stripPixels.length < width * STRIP_ROWS) {
+            stripPixels = new int[width * STRIP_ROWS];
+            if (format == GLES20.GL_LUMINANCE_ALPHA) {
+                stripShorts = new short[width * STRIP_ROWS];
+            }
+        }
+        int bytes = width * height * getBytesPerPixel();
+        buffer = reuse;
+        if (buffer == null || buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocateDirect(bytes);
+        }
+        buffer.clear();
+        // Values written in native order land in memory as the bytes GL expects.
+        buffer.order(ByteOrder.nativeOrder());
+        if (format == GLES20.GL_LUMINANCE_ALPHA) {
+            shorts = buffer.asShortBuffer();
+        } else {
+            ints = buffer.asIntBuffer();
+        }
+    }
+
+    private ByteBuffer finish() {
+        // The views share the bytes but not the position or limit.
+        ByteBuffer pixels = buffer;
+        pixels.limit(width * height * getBytesPerPixel());
+        buffer = null;
+        ints = null;
+        shorts = null;
+        return pixels;
+    }
+
+    private void put(Bitmap bitmap, int top, int rows) {
+        int count = width * rows;
+        bitmap.getPixels(stripPixels, 0, width, 0, top, width, rows);
+        if (format == GLES20.GL_LUMINANCE_ALPHA) {
+            // Green over red, which is red then green in memory on a little
+            // endian CPU.
+            for (int i = 0; i < count; i++) {
+                int pixel = stripPixels[i];
+                stripShorts[i] = (short) ((pixel & 0xff00) | ((pixel >> 16) & 0xff));
+            }
+            shorts.put(stripShorts, 0, count);
+            return;
+        }
+        // Swizzle ARGB to ABGR, which is RGBA in memory on a little endian CPU.
+        for (int i = 0; i < count; i++) {
+            int pixel = stripPixels[i];
+            int red = (pixel >> 16) & 0xff;
+            int green = (pixel >> 8) & 0xff;
+            int blue = pixel & 0xff;
+            int alpha = pixel & 0xff000000;
+            stripPixels[i] = alpha | (green << 8) | (red) | (blue << 16);
+        }
+        ints.put(stripPixels, 0, count);
+    }
+}
@@ -0,0 +1,159 @@
+package uk.co.drdv.wearable.dla;
+
+import java.util.Arrays;
+
+/**
+ * Times how long each render pass takes to submit on the CPU.
+ *
+ * These are not GPU times.  The timer queries that would give those need an
+ * ES 3 context for their Java bindings, and Gles2WatchFaceService always
+ * makes an ES 2 one.  Submission time still shows a pass that makes the
+ * driver copy or validate a lot, and the GPU side is left to the work counts
+ * the engines log.
+ *
+ * Measurements go into a ring of slots and are read back by
+ * {@link #collect()}, once the backend says they are ready, so a backend
+ * whose results arrive frames later can be plugged in without changing the
+ * callers.  If the ring fills up, passes go unmeasured rather than waiting.
+ * The last {@link #SAMPLES} results of each pass are kept for percentiles.
+ */
+public class Profiler {
+
+    public static final long NOT_READY = -1;
+    public static final long DISCARDED = -2;
+
+    private static final int SLOTS = 16;
+    private static final int SAMPLES = 128;
+
+    /**
+     * Does the actual timing.  Slots are reused once polled to a result.
+     */
+    public interface Backend {
+        void begin(int slot);
+
+        void end(int slot);
+
+        /**
+         * @return the nanoseconds taken, {@link #NOT_READY} or {@link #DISCARDED}.
+         */
+        long poll(int slot);
+
+        void release();
+    }
+
+    private final Backend backend;
+    private final String[] passNames;
+    private final int[] slotPasses = new int[SLOTS];
+    private final long[][] samples;
+    private final int[] sampleCounts;
+    private int oldest; // Oldest slot still waiting for a result.
+    private int pending;
+    private int current = -1;
+
+    /**
+     * @param backend null to switch profiling off.
+     */
+    public Profiler(Backend backend, String... passNames) {
+        this.backend = backend;
+        this.passNames = passNames;
+        samples = new long[passNames.length][SAMPLES];
+        sampleCounts = new int[passNames.length];
+    }
+
+    public void begin(int pass) {
+        if (backend == null || pending == SLOTS) {
+            return;
+        }
+        current = (oldest + pending) % SLOTS;
+        slotPasses[current] = pass;
+        backend.begin(current);
+    }
+
+    public void end() {
+        if (current < 0) {
+            return;
+        }
+        backend.end(current);
+        pending++;
+        current = -1;
+    }
+
+    /**
+     * Read back whatever has finished.  Call once per frame.
+     */
+    public void collect() {
+        while (pending > 0) {
+            long result = backend.poll(oldest);
+            if (result == NOT_READY) {
+                return; // Results arrive in order, so the rest aren't ready either.
+            }
+            if (result != DISCARDED) {
+                int pass = slotPasses[oldest];
+                samples[pass][sampleCounts[pass] % SAMPLES] = result;
+                sampleCounts[pass]++;
+            }
+            oldest = (oldest + 1) % SLOTS;
+            pending--;
+        }
+    }
+
+    /**
+     * @param fraction 0.5 for the median, 0.9 for the 90th percentile and so on.
+     * @return nanoseconds, or -1 if the pass hasn't been measured.
+     */
+    public long getPercentile(int pass, float fraction) {
+        int count = Math.min(sampleCounts[pass], SAMPLES);
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples[pass], count);
+        Arrays.sort(sorted);
+        return sorted[Math.min(count - 1, (int) (fraction * count))];
+    }
+
+    public void release() {
+        if (backend != null) {
+            backend.release();
+        }
+    }
+
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        for (int pass = 0; pass < passNames.length; pass++) {
+            builder.append(passNames[pass])
+                    .append(": p50 ").append(getPercentile(pass, 0.5f) / 1000)
+                    .append("us p90 ").append(getPercentile(pass, 0.9f) / 1000)
+                    .append("us p99 ").append(getPercentile(pass, 0.99f) / 1000)
+                    .append("us; ");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Time spent issuing the pass on the CPU.  Results are ready at once.
+     */
+    public static class CpuBackend implements Backend {
+
+        private final long[] starts = new long[SLOTS];
+        private final long[] ends = new long[SLOTS];
+
+        @Override
+        public void begin(int slot) {
+            starts[slot] = System.nanoTime();
+        }
+
+        @Override
+        public void end(int slot) {
+            ends[slot] = System.nanoTime();
+        }
+
+        @Override
+        public long poll(int slot) {
+            return ends[slot] - starts[slot];
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package uk.co.drdv.wearable.dla;
+
+import android.os.Handler;
+
+/**
+ * Wakes the engine once per period, exactly on the period boundary of the
+ * wall clock, so the hand can move every second without drawing any more
+ * often than that.
+ *
+ * Only one message is ever queued.  It is queued again after each frame that
+ * isn't part of an animation, and dropped while an animation is asking for
+ * frames of its own, so the two never both wake the engine.
+ */
+public class RedrawScheduler {
+
+    private final Handler handler = new Handler();
+    private final long periodMillis;
+    private final Runnable redraw;
+    private boolean running;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            redraw.run();
+        }
+    };
+
+    /**
+     * @param periodMillis 1000 for a hand that moves every second, or a
+     *                     divisor of 1000 for smaller steps.
+     * @param redraw       run on the main thread to ask for a frame.
+     */
+    public RedrawScheduler(long periodMillis, Runnable redraw) {
+        this.periodMillis = periodMillis;
+        this.redraw = redraw;
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        scheduleNext();
+    }
+
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(tick);
+    }
+
+    /**
+     * Call after every frame.
+     *
+     * @param animating whether the frame has already asked for another one.
+     */
+    public void onFrameDrawn(boolean animating) {
+        if (!running) {
+            return;
+        }
+        if (animating) {
+            handler.removeCallbacks(tick);
+        } else {
+            scheduleNext();
+        }
+    }
+
+    private void scheduleNext() {
+        handler.removeCallbacks(tick);
+        long delay = periodMillis - System.currentTimeMillis() % periodMillis;
+        handler.postDelayed(tick, delay);
+    }
+}
@@ -7,147 +7,8 @@ import java.nio.FloatBuffer;
 
 public class Shaders {
 
-    // The same vertex shader is used in full colour and ambient mode.
-
-    // Line endings are not needed for successful compilation but the
-    // device driver will report a line number other than 1 if there is a
-    // compile-time error.  Very handy!
-    private static final String VERTEX_SHADER =
-            // Pass in the modelview matrix as a constant.
-            "uniform mat4 u_mvpMatrix;  \n"
-                    // Pass in the position and texture coordinates per vertex.
-                    + "attribute vec4 a_position;  \n"
-                    + "attribute vec2 a_texCoord;  \n"
-                    // Varyings are sent on to the fragment shader.
-                    + "varying vec2 v_texCoord;  \n"
-
-                    + "void main() {  \n"
-                    // Transform the vertex coordinate into clip coordinates.
-                    + "  gl_Position = u_mvpMatrix * a_position;  \n"
-                    // Pass through the texture coordinate.
-                    + "  v_texCoord = a_texCoord;  \n"
-                    + "}  \n";
-
-    // The fragment shader to use when the watch is active
-    // (screen on, full brightness and colour).
-    private static final String FULL_COLOUR_FRAGMENT_SHADER =
-            // Medium precision is common on mobile devices.
-            "precision mediump float;  \n"
-                    // Pass in the texture map as a constant sampler.
-                    + "uniform sampler2D s_texture;  \n"
-                    // The constant draw radius.
-                    + "uniform float u_size;  \n"
-                    // The time in terms of the s (horizontal) texture coordinate.
-                    // s == 0 is the left edge of the texture, s == 1 the right edge.
-                    + "uniform float u_now;  \n"
-                    // Whether to swap blue-left/red-right with red-left/blue-right.
-                    + "uniform float u_swap_day_night;  \n"
-                    // The texture coordinate passed in from the vertex shader.
-                    + "varying vec2 v_texCoord;  \n"
-
-                    + "void main(){  \n"
-                    // Look up the colour in the texture for this fragment.
-                    // Filtering of mipmaps occurs here, so we will get a
-                    // blended colour.
-                    + "  vec4 colour = texture2D(s_texture, v_texCoord);  \n"
-
-                    // s in [0..1], the x-coordinate, t in [0..1] as the y-coordinate.
-                    + "  float s = v_texCoord.s;  \n"
-                    + "  float t = v_texCoord.t;  \n"
-
-                    // If the texel (texture pixel) is black, and we are not drawing the
-                    // "hand" line, then we straightaway send out a black pixel to the display.
-                    // This immediately culls a lot of fragment processing.
-                    + "  if (colour.r == 0.0 && colour.g == 0.0 && colour.b == 0.0) {  \n"
-                    // If we are in the narrow stripe between blue and red sides, then
-                    // output a white pixel of increasing intensity as the radius increases.
-                    + "    if (s < u_now + 0.001 && s > u_now - 0.001) {  \n"
-                    + "      float w = (0.001 - abs(s - u_now)) * 1000.0;  \n"
-                    + "      colour = vec4(w, w, w, 1.0);  \n"
-                    + "    } else {  \n"
-                    + "      gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);  \n"
-                    + "      return;  \n"
-                    + "    }  \n"
-                    + "  } else {  \n"
-
-                    // If the texel is grey then we send out
-                    // a grey pixel, for the numerals and timeline.  This brightens over
-                    // time.
-                    + "    if (colour.r == colour.g && colour.g == colour.b) {  \n"
-                    + "      gl_FragColor = colour * clamp(u_size * 2.0, 0.0, 1.0);  \n"
-                    + "      return;  \n"
-                    + "    }  \n"
-
-                    // Add a blend for coloured pixels near the watch hand.
-                    + "    if (s < u_now + 0.004 && s > u_now - 0.004) {  \n"
-                    + "      float w = (0.004 - abs(s - u_now)) * 250.0;  \n"
-                    + "      colour = vec4(w, w, w, 1.0) + colour;  \n"
-                    + "    }  \n"
-                    + "  }  \n"
-
-                    // If the radius from the centre is greater than u_size, then return black.
-                    + "  float len = length(vec2((s - 0.5) * 2.0, (t - 0.5) * 2.0));"
-                    // Adding a fudge factor based on the green colour channel makes
-                    // different colours expand at different rates.
-                    + "  if (len > u_size + colour.g * 0.3) {  \n"
-                    + "    gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);  \n"
-                    + "    return;  \n"
-                    + "  }  \n"
-
-                    // Create a glow colour depending on the distance from the radius.
-                    + "  float glow = clamp((0.3 - (u_size - len)) * 2.0, 0.0, 0.6);  \n"
-
-                    // Set up the colours for each side.  We start with blue on
-                    // the left in the morning, and swap it to the right in the
-                    // afternoon.  This is how you tell am/pm at a glance.
-                    + "  if ((s > u_now + 0.001 && u_swap_day_night == 0.0)  \n"
-                    + "    || (s < u_now - 0.001 && u_swap_day_night == 1.0)) {  \n"
-                    + "    gl_FragColor = colour * vec4(1.0, 1.0, 0.0, 1.0) + vec4(glow, glow, glow, 1.0);  \n"
-                    + "    return;  \n"
-                    + "  } else {  \n"
-                    + "    gl_FragColor = colour * vec4(0.0, 1.0, 1.0, 1.0) + vec4(glow, glow, glow, 1.0);  \n"
-                    + "    return;  \n"
-                    + "  }  \n"
-
-                    // Default case, output a black pixel.  If the face.png bitmap has
-                    // been prepared properly, we won't reach here.
-                    + "  gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);  \n"
-                    + "}  \n";
-
-    // In low-power (ambient) mode, we must only output black or white pixels,
-    // no grey shades.
-    private static final String AMBIENT_FRAGMENT_SHADER =
-            "precision mediump float;  \n"
-                    + "uniform sampler2D s_texture;  \n"
-                    + "uniform float u_now;  \n"
-                    + "varying vec2 v_texCoord;  \n"
-
-                    + "void main(){  \n"
-                    + "  vec4 colour = texture2D(s_texture, v_texCoord);  \n"
-
-                    // The white stripe that forms the watch hand.
-                    + "  float s = v_texCoord.s;  \n"
-                    + "  if (s < u_now + 0.001 && s > u_now - 0.001) {  \n"
-                    + "    gl_FragColor = vec4(1.0, 1.0, 1.0, 1.0);  \n"
-                    + "    return;  \n"
-                    + "  }  \n"
-
-                    // Output any black pixels.
-                    + "  if (colour.a == 0.0  \n"
-                    + "    || (colour.r == 0.0 && colour.g == 0.0 && colour.b == 0.0)) {  \n"
-                    + "    gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);  \n"
-                    + "    return;  \n"
-                    + "  }  \n"
-
-                    // Output existing white decals like the numerals and timeline.
-                    + "  if (colour.r == colour.g && colour.g == colour.b && colour.r > 0.2) {  \n"
-                    + "    gl_FragColor = vec4(1.0, 1.0, 1.0, 1.0);  \n"
-                    + "    return;  \n"
-                    + "  }  \n"
-
-                    // Anything else is black.
-                    + "  gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);  \n"
-                    + "}";
+    // The sources live in src/main/glsl.  The build checks and minifies them
+    // into GlslSources, so a shader that won't compile never gets this far.
 
     private int fullColour;
     private int positionFC;
@@ -157,6 +18,7 @@ public class Shaders {
     private int uSizeFC;
     private int uNowFC;
     private int uSwapDayNightFC;
+    private int uTileFC;
 
     private int ambient;
     private int positionA;
@@ -164,15 +26,42 @@ public class Shaders {
     private int textureArrayA;
     private int uMVPMatrixA;
     private int uNowA;
+    private int uTileA;
 
+    // The u_tile location and attributes in whichever program was set up last.
+    private int uTile;
+    private int position;
+    private int textureArray;
+
+    // Programs are compiled the first time they are used, or one at a time
+    // by compileNext() once the first frame is out.
     public Shaders() {
-        createFullColourProgram();
-        createAmbientProgram();
+    }
+
+    /**
+     * Compile one program that hasn't been needed yet.
+     *
+     * @return whether there are any left to compile.
+     */
+    public boolean compileNext() {
+        if (fullColour == 0) {
+            createFullColourProgram();
+        } else if (ambient == 0) {
+            createAmbientProgram();
+        }
+        return fullColour == 0 || ambient == 0;
     }
 
     public void setFullColourParameters(float[] mvpMatrix, FloatBuffer vtBuffer,
                                         float size, float now, boolean swapDayNight) {
+        if (fullColour == 0) {
+            createFullColourProgram();
+        }
         GLES20.glUseProgram(fullColour);
+        uTile = uTileFC;
+        position = positionFC;
+        textureArray = textureArrayFC;
+        setTile(0, 0, 1, 1);
         GLES20.glUniformMatrix4fv(uMVPMatrixFC, 1, false, mvpMatrix, 0);
         GLES20.glUniform1f(uSizeFC, size);
         GLES20.glUniform1f(uNowFC, now);
@@ -189,7 +78,14 @@ public class Shaders {
     }
 
     public void setAmbientParameters(float[] mvpMatrix, FloatBuffer vtBuffer, float now) {
+        if (ambient == 0) {
+            createAmbientProgram();
+        }
         GLES20.glUseProgram(ambient);
+        uTile = uTileA;
+        position = positionA;
+        textureArray = textureArrayA;
+        setTile(0, 0, 1, 1);
         GLES20.glUniformMatrix4fv(uMVPMatrixA, 1, false, mvpMatrix, 0);
         GLES20.glUniform1f(uNowA, now);
         vtBuffer.position(0);
@@ -199,27 +95,53 @@ public class Shaders {
         GLES20.glVertexAttribPointer(textureArrayA, 2, GLES20.GL_FLOAT, false, 16, vtBuffer);
     }
 
+    /**
+     * Map the bound texture onto part of the face, for tiled textures.
+     */
+    public void setTile(float s, float t, float scaleS, float scaleT) {
+        GLES20.glUniform4f(uTile, s, t, scaleS, scaleT);
+    }
+
+    /**
+     * Point the program set up last at x, y, z, s, t vertices from the bound
+     * vertex buffer object, starting at the given byte offset.
+     */
+    public void setTerrainVertices(int offset) {
+        GLES20.glVertexAttribPointer(position, 3, GLES20.GL_FLOAT, false, 20, offset);
+        GLES20.glVertexAttribPointer(textureArray, 2, GLES20.GL_FLOAT, false, 20, offset + 12);
+    }
+
+    /**
+     * Delete the programs.  The GL context must be current.
+     */
+    public void release() {
+        GLES20.glDeleteProgram(fullColour);
+        GLES20.glDeleteProgram(ambient);
+    }
+
     private void createFullColourProgram() {
-        fullColour = createProgram(VERTEX_SHADER, FULL_COLOUR_FRAGMENT_SHADER);
-        positionFC = GLES20.glGetAttribLocation(fullColour, "a_position");
-        textureArrayFC = GLES20.glGetAttribLocation(fullColour, "a_texCoord");
-        textureFC = GLES20.glGetUniformLocation(fullColour, "s_texture");
-        uMVPMatrixFC = GLES20.glGetUniformLocation(fullColour, "u_mvpMatrix");
-        uSizeFC = GLES20.glGetUniformLocation(fullColour, "u_size");
-        uNowFC = GLES20.glGetUniformLocation(fullColour, "u_now");
-        uSwapDayNightFC = GLES20.glGetUniformLocation(fullColour, "u_swap_day_night");
+        fullColour = createProgram(GlslSources.FACE_VERTEX, GlslSources.FULL_COLOUR_FRAGMENT);
+        positionFC = GLES20.glGetAttribLocation(fullColour, GlslSources.A_POSITION);
+        textureArrayFC = GLES20.glGetAttribLocation(fullColour, GlslSources.A_TEX_COORD);
+        textureFC = GLES20.glGetUniformLocation(fullColour, GlslSources.S_TEXTURE);
+        uMVPMatrixFC = GLES20.glGetUniformLocation(fullColour, GlslSources.U_MVP_MATRIX);
+        uSizeFC = GLES20.glGetUniformLocation(fullColour, GlslSources.U_SIZE);
+        uNowFC = GLES20.glGetUniformLocation(fullColour, GlslSources.U_NOW);
+        uSwapDayNightFC = GLES20.glGetUniformLocation(fullColour, GlslSources.U_SWAP_DAY_NIGHT);
+        uTileFC = GLES20.glGetUniformLocation(fullColour, GlslSources.U_TILE);
         GLES20.glEnableVertexAttribArray(positionFC);
         GLES20.glEnableVertexAttribArray(textureArrayFC);
         checkProgram(fullColour);
     }
 
     private void createAmbientProgram() {
-        ambient = createProgram(VERTEX_SHADER, AMBIENT_FRAGMENT_SHADER);
-        positionA = GLES20.glGetAttribLocation(ambient, "a_position");
-        textureArrayA = GLES20.glGetAttribLocation(ambient, "a_texCoord");
-        textureA = GLES20.glGetUniformLocation(ambient, "s_texture");
-        uMVPMatrixA = GLES20.glGetUniformLocation(ambient, "u_mvpMatrix");
-        uNowA = GLES20.glGetUniformLocation(ambient, "u_now");
+        ambient = createProgram(GlslSources.FACE_VERTEX, GlslSources.AMBIENT_FRAGMENT);
+        positionA = GLES20.glGetAttribLocation(ambient, GlslSources.A_POSITION);
+        textureArrayA = GLES20.glGetAttribLocation(ambient, GlslSources.A_TEX_COORD);
+        textureA = GLES20.glGetUniformLocation(ambient, GlslSources.S_TEXTURE);
+        uMVPMatrixA = GLES20.glGetUniformLocation(ambient, GlslSources.U_MVP_MATRIX);
+        uNowA = GLES20.glGetUniformLocation(ambient, GlslSources.U_NOW);
+        uTileA = GLES20.glGetUniformLocation(ambient, GlslSources.U_TILE);
         GLES20.glEnableVertexAttribArray(positionA);
         GLES20.glEnableVertexAttribArray(textureArrayA);
         checkProgram(ambient);
@@ -233,6 +155,9 @@ public class Shaders {
         GLES20.glAttachShader(program, fragmentShader);
         GLES20.glLinkProgram(program);
         checkProgram(program);
+        // Flag the shaders so they go when the program is deleted.
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
         return program;
     }
 
@@ -0,0 +1,106 @@
+package uk.co.drdv.wearable.dla;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data that every engine in the process would otherwise build for itself,
+ * such as decoded images and vertices that never change.
+ *
+ * The face picker can run a preview engine alongside the one on the watch
+ * face.  Rather than each decoding and building the same things, engines
+ * borrow them by key.  The first borrower builds the value, later ones get
+ * the same object, and it is dropped when the last of them gives it back.
+ *
+ * Only CPU side data can be shared, since GL names belong to one context and
+ * each engine has its own.  Nobody may change a value once it is built.
+ *
+ * Each engine has its own SharedCache, which remembers what that engine has
+ * borrowed so that it can all be given back at once.  The values themselves
+ * are shared by every SharedCache in the process.  Safe to use from any
+ * thread.
+ */
+public class SharedCache {
+
+    /**
+     * Makes the value for a key the first time it is borrowed.
+     */
+    public interface Builder<T> {
+        T build();
+    }
+
+    private static class Entry {
+        Object value;
+        int borrowers;
+    }
+
+    private static final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    private final List<String> borrowed = new ArrayList<String>();
+
+    /**
+     * Borrow the value for key, building it if nobody has it yet.  Building
+     * happens outside the cache's lock, so a slow decode doesn't hold up other
+     * keys.  Another engine borrowing the same key waits for it instead of
+     * building its own.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T borrow(String key, Builder<T> builder) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            entry.borrowers++;
+        }
+        synchronized (borrowed) {
+            borrowed.add(key);
+        }
+        try {
+            synchronized (entry) {
+                if (entry.value == null) {
+                    entry.value = builder.build();
+                }
+                return (T) entry.value;
+            }
+        } catch (RuntimeException e) {
+            giveBack(key);
+            throw e;
+        }
+    }
+
+    /**
+     * Give back one borrow of key.  Does nothing if this engine isn't
+     * borrowing it.
+     */
+    public void giveBack(String key) {
+        synchronized (borrowed) {
+            if (!borrowed.remove(key)) {
+                return;
+            }
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (--entry.borrowers == 0) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Give back everything this engine has borrowed.
+     */
+    public void giveBackAll() {
+        List<String> keys;
+        synchronized (borrowed) {
+            keys = new ArrayList<String>(borrowed);
+        }
+        for (String key : keys) {
+            giveBack(key);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package uk.co.drdv.wearable.dla;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * The aggregate raised into a heightfield, drawn in chunks with a level of
+ * detail that drops with distance from the look-at point.
+ *
+ * The face is cut into CHUNKS x CHUNKS chunks of CELLS x CELLS grid cells.
+ * A chunk can be drawn using every vertex, every second or every fourth.
+ * Along chunk edges only every fourth vertex has its own height, the ones in
+ * between are moved onto the line joining them, so neighbouring chunks meet
+ * without cracks whatever their levels.  Chunks outside the view frustum are
+ * skipped, and if the ones in view would need more than the vertex budget the
+ * furthest are made coarser until they fit.
+ *
+ * Heights come from the age of the deposit.  The aggregate grew outwards from
+ * the centre, so the older branches near the middle stand tallest.
+ */
+public class Terrain {
+
+    private static final int CHUNKS = 8;
+    private static final int CELLS = 16;
+    private static final int SIDE = CELLS + 1; // Vertices across a chunk.
+    private static final int GRID = CHUNKS * CELLS; // Cells across the face.
+    private static final int STRIDE = 5; // x, y, z, s, t.
+    // Grid cells per triangle at each level, finest first.  Chunk edges follow
+    // the last, so it must divide all the others.
+    private static final int[] STEPS = {1, 2, 4};
+    // Chunks nearer the look-at point than these get levels 0 and 1.
+    private static final float[] LEVEL_DISTANCES = {0.3f, 0.6f};
+    private static final float MAX_HEIGHT = 0.06f;
+
+    private final int vertexBudget;
+    private final float[] minZ = new float[CHUNKS * CHUNKS];
+    private final float[] maxZ = new float[CHUNKS * CHUNKS];
+    private final float[] distances = new float[CHUNKS * CHUNKS];
+    private final int[] levels = new int[CHUNKS * CHUNKS]; // -1 when culled.
+    private final int[] indexOffsets = new int[STEPS.length];
+    private final int[] indexCounts = new int[STEPS.length];
+    private final int[] buffers = new int[2]; // Vertices, indices.
+    private FloatBuffer vertices; // Until uploaded.
+    private ShortBuffer indices;
+
+    /**
+     * Build the mesh.  Needs no GL, so it can run on a worker thread.
+     *
+     * @param pixels       the face as luminance-alpha bytes, red then green.
+     * @param vertexBudget the most vertices to draw in a frame.
+     */
+    public Terrain(ByteBuffer pixels, int width, int height, int vertexBudget) {
+        this.vertexBudget = vertexBudget;
+        float[][] heights = createHeights(pixels, width, height);
+        pinEdges(heights);
+        vertices = ByteBuffer.allocateDirect(CHUNKS * CHUNKS * SIDE * SIDE * STRIDE * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        for (int chunk = 0; chunk < CHUNKS * CHUNKS; chunk++) {
+            int left = chunk % CHUNKS * CELLS;
+            int top = chunk / CHUNKS * CELLS;
+            minZ[chunk] = Float.MAX_VALUE;
+            maxZ[chunk] = -Float.MAX_VALUE;
+            for (int row = 0; row < SIDE; row++) {
+                for (int column = 0; column < SIDE; column++) {
+                    float s = (float) (left + column) / GRID;
+                    float t = (float) (top + row) / GRID;
+                    float z = heights[top + row][left + column];
+                    vertices.put(s * 2 - 1);
+                    vertices.put(1 - t * 2);
+                    vertices.put(z);
+                    vertices.put(s);
+                    vertices.put(t);
+                    minZ[chunk] = Math.min(minZ[chunk], z);
+                    maxZ[chunk] = Math.max(maxZ[chunk], z);
+                }
+            }
+        }
+        createIndices();
+    }
+
+    /**
+     * Move the mesh into GL buffers.  Call on the GL thread.
+     */
+    public void upload() {
+        GLES20.glGenBuffers(2, buffers, 0);
+        vertices.position(0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.capacity() * 4,
+                vertices, GLES20.GL_STATIC_DRAW);
+        indices.position(0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.capacity() * 2,
+                indices, GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        vertices = null;
+        indices = null;
+    }
+
+    public int getBytes() {
+        return CHUNKS * CHUNKS * SIDE * SIDE * STRIDE * 4
+                + (indexOffsets[STEPS.length - 1] + indexCounts[STEPS.length - 1]) * 2;
+    }
+
+    /**
+     * Draw with whichever program shaders set up last.
+     *
+     * @param lookX where the camera is looking, in face coordinates.
+     */
+    public void draw(Shaders shaders, float[] mvpMatrix, float lookX, float lookY) {
+        chooseLevels(mvpMatrix, lookX, lookY);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+        for (int chunk = 0; chunk < CHUNKS * CHUNKS; chunk++) {
+            int level = levels[chunk];
+            if (level < 0) {
+                continue;
+            }
+            shaders.setTerrainVertices(chunk * SIDE * SIDE * STRIDE * 4);
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCounts[level],
+                    GLES20.GL_UNSIGNED_SHORT, indexOffsets[level] * 2);
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Free the GL buffers.  Call on the GL thread.
+     */
+    public void release() {
+        GLES20.glDeleteBuffers(2, buffers, 0);
+    }
+
+    /**
+     * Heights at each grid point, from the share of aggregate texels around
+     * it and how far out from the centre they are.
+     */
+    private static float[][] createHeights(ByteBuffer pixels, int width, int height) {
+        float[][] heights = new float[GRID + 1][GRID + 1];
+        int blockWidth = Math.max(1, width / GRID);
+        int blockHeight = Math.max(1, height / GRID);
+        for (int row = 0; row <= GRID; row++) {
+            for (int column = 0; column <= GRID; column++) {
+                int x0 = Math.max(0, Math.min(width - blockWidth,
+                        column * width / GRID - blockWidth / 2));
+                int y0 = Math.max(0, Math.min(height - blockHeight,
+                        row * height / GRID - blockHeight / 2));
+                int aggregate = 0;
+                for (int y = y0; y < y0 + blockHeight; y++) {
+                    for (int x = x0; x < x0 + blockWidth; x++) {
+                        int index = (y * width + x) * 2;
+                        // Black and the grey decals have red equal to green.
+                        if (pixels.get(index) != pixels.get(index + 1)) {
+                            aggregate++;
+                        }
+                    }
+                }
+                float coverage = (float) aggregate / (blockWidth * blockHeight);
+                float radius = (float) Math.hypot(column - GRID / 2, row - GRID / 2) / (GRID / 2);
+                heights[row][column] = MAX_HEIGHT * coverage * Math.max(0, 1 - radius);
+            }
+        }
+        return heights;
+    }
+
+    /**
+     * Along every chunk edge, put the heights between the coarsest level's
+     * vertices on the straight line between them.
+     */
+    private static void pinEdges(float[][] heights) {
+        int step = STEPS[STEPS.length - 1];
+        for (int line = 0; line <= GRID; line += CELLS) {
+            for (int i = 0; i < GRID; i++) {
+                int before = i - i % step;
+                if (before == i) {
+                    continue;
+                }
+                float f = (float) (i - before) / step;
+                heights[line][i] = heights[line][before]
+                        + (heights[line][before + step] - heights[line][before]) * f;
+                heights[i][line] = heights[before][line]
+                        + (heights[before + step][line] - heights[before][line]) * f;
+            }
+        }
+    }
+
+    private void createIndices() {
+        int total = 0;
+        for (int level = 0; level < STEPS.length; level++) {
+            int cells = CELLS / STEPS[level];
+            indexOffsets[level] = total;
+            indexCounts[level] = cells * cells * 6;
+            total += indexCounts[level];
+        }
+        indices = ByteBuffer.allocateDirect(total * 2)
+                .order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+        for (int step : STEPS) {
+            for (int row = 0; row < CELLS; row += step) {
+                for (int column = 0; column < CELLS; column += step) {
+                    short topLeft = (short) (row * SIDE + column);
+                    short topRight = (short) (topLeft + step);
+                    short bottomLeft = (short) (topLeft + step * SIDE);
+                    short bottomRight = (short) (bottomLeft + step);
+                    indices.put(topLeft).put(bottomLeft).put(topRight);
+                    indices.put(topRight).put(bottomLeft).put(bottomRight);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the level chooseLevels() picked for chunk, -1 if it is culled.
+     */
+    int getLevel(int chunk) {
+        return levels[chunk];
+    }
+
+    static int vertexCount(int level) {
+        int side = CELLS / STEPS[level] + 1;
+        return side * side;
+    }
+
+    /**
+     * Pick each chunk's level for a frame, or -1 to skip it, into levels.
+     */
+    void chooseLevels(float[] m, float lookX, float lookY) {
+        int total = 0;
+        float half = 1f / CHUNKS; // Half a chunk, in face coordinates.
+        for (int chunk = 0; chunk < CHUNKS * CHUNKS; chunk++) {
+            float x0 = (float) (chunk % CHUNKS) * 2 / CHUNKS - 1;
+            float y1 = 1 - (float) (chunk / CHUNKS) * 2 / CHUNKS;
+            if (!inFrustum(m, x0, y1 - 2 * half, x0 + 2 * half, y1, chunk)) {
+                levels[chunk] = -1;
+                continue;
+            }
+            distances[chunk] = Math.max(0, (float) Math.hypot(
+                    x0 + half - lookX, y1 - half - lookY) - half * 1.4142f);
+            int level = 0;
+            while (level < LEVEL_DISTANCES.length && distances[chunk] > LEVEL_DISTANCES[level]) {
+                level++;
+            }
+            levels[chunk] = level;
+            total += vertexCount(level);
+        }
+        // Over budget, so coarsen the furthest chunks that can still be coarsened.
+        while (total > vertexBudget) {
+            int furthest = -1;
+            for (int chunk = 0; chunk < CHUNKS * CHUNKS; chunk++) {
+                if (levels[chunk] >= 0 && levels[chunk] < STEPS.length - 1
+                        && (furthest < 0 || distances[chunk] > distances[furthest])) {
+                    furthest = chunk;
+                }
+            }
+            if (furthest < 0) {
+                return; // Everything is as coarse as it goes.
+            }
+            total -= vertexCount(levels[furthest]) - vertexCount(levels[furthest] + 1);
+            levels[furthest]++;
+        }
+    }
+
+    private boolean inFrustum(float[] m, float left, float bottom, float right, float top,
+                              int chunk) {
+        int outside = 0x3f;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = (corner & 1) == 0 ? left : right;
+            float y = (corner & 2) == 0 ? bottom : top;
+            float z = (corner & 4) == 0 ? minZ[chunk] : maxZ[chunk];
+            float cx = m[0] * x + m[4] * y + m[8] * z + m[12];
+            float cy = m[1] * x + m[5] * y + m[9] * z + m[13];
+            float cz = m[2] * x + m[6] * y + m[10] * z + m[14];
+            float cw = m[3] * x + m[7] * y + m[11] * z + m[15];
+            int planes = 0;
+            if (cx < -cw) planes |= 1;
+            if (cx > cw) planes |= 2;
+            if (cy < -cw) planes |= 4;
+            if (cy > cw) planes |= 8;
+            if (cz < -cw) planes |= 16;
+            if (cz > cw) planes |= 32;
+            outside &= planes;
+        }
+        return outside == 0;
+    }
+}
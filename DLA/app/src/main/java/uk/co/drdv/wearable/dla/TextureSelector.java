@@ -0,0 +1,39 @@
+package uk.co.drdv.wearable.dla;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks between copies of a texture shipped at different sizes.
+ *
+ * Add each copy with its width, then ask for the smallest one that still has
+ * at least as many texels across as the screen will sample.  Anything bigger
+ * is only decoded, uploaded and mipmapped to be filtered away again.
+ */
+public class TextureSelector {
+
+    private final List<int[]> candidates = new ArrayList<int[]>(); // Resource, width.
+
+    public TextureSelector add(int resourceId, int width) {
+        candidates.add(new int[]{resourceId, width});
+        return this;
+    }
+
+    /**
+     * @param requiredWidth texels needed across the whole texture.
+     * @return the smallest resource at least that wide, or the widest if none are.
+     */
+    public int select(float requiredWidth) {
+        int[] best = null;
+        int[] widest = null;
+        for (int[] candidate : candidates) {
+            if (widest == null || candidate[1] > widest[1]) {
+                widest = candidate;
+            }
+            if (candidate[1] >= requiredWidth && (best == null || candidate[1] < best[1])) {
+                best = candidate;
+            }
+        }
+        return best != null ? best[0] : widest[0];
+    }
+}
@@ -0,0 +1,389 @@
+package uk.co.drdv.wearable.dla;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.opengl.GLES20;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A virtual texture for aggregates too big to upload in one go.
+ *
+ * The face is cut into square tiles that are decoded on a worker thread and
+ * uploaded as separate GL textures, at most a fixed number at a time.  Tiles
+ * are drawn as separate quads, so only the ones inside the view frustum are
+ * needed.  A small overview of the whole face stands in for tiles that are not
+ * resident yet, and for every tile when the camera is far enough away that
+ * the overview has all the detail the screen can show.
+ *
+ * Each tile's texture has a border of texels copied from its neighbours, so
+ * that filtering at a tile's edge blends with the next tile rather than
+ * clamping, and the seams don't show.  Textures are still tileSize square,
+ * so a tile covers tileSize - 2 pixels of the face.
+ */
+public class TiledTexture {
+
+    // Tiles decoded on the worker thread but not yet uploaded are held back
+    // to this many per frame, so a burst of arrivals cannot stall a frame.
+    private static final int UPLOADS_PER_FRAME = 2;
+    private static final int OVERVIEW_SIZE = 1024;
+    private static final int BORDER = 1;
+
+    private final Resources resources;
+    private final int resourceId;
+    private final BitmapRegionDecoder decoder;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int step; // Pixels of the face each tile covers.
+    private final int tilesX;
+    private final int tilesY;
+    private final int maxResident;
+    private final FloatBuffer vtBuffer; // Four vertices per tile, x, y, s, t.
+    // Tile index to GL texture, in least to most recently used order.
+    private final LinkedHashMap<Integer, Integer> resident =
+            new LinkedHashMap<Integer, Integer>(16, 0.75f, true);
+    private final Set<Integer> requested = new HashSet<Integer>();
+    private final ConcurrentLinkedQueue<Tile> decoded = new ConcurrentLinkedQueue<Tile>();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final List<Integer> visible = new ArrayList<Integer>();
+    private final Runnable onTileDecoded;
+    private final PixelDecoder pixelDecoder; // Worker thread only.
+    // Buffers of uploaded tiles, for the worker to decode into again.
+    private final ConcurrentLinkedQueue<ByteBuffer> spareBuffers =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+    private final int[] textures = new int[1];
+    private ByteBuffer overviewPixels; // Decoded, waiting to be uploaded.
+    private int overviewWidth;
+    private int overviewHeight;
+    private int overview;
+    private volatile boolean released; // Tells queued decodes not to start.
+
+    private static class Tile {
+        int index;
+        int width;
+        int height;
+        ByteBuffer pixels;
+    }
+
+    /**
+     * Opens the image and decodes the overview, so construct off the GL
+     * thread and call {@link #createOverview()} on it afterwards.
+     *
+     * @param onTileDecoded run on the worker thread when a tile is ready to
+     *                      upload, so that the caller can schedule a frame.
+     */
+    public TiledTexture(Resources resources, int resourceId, int tileSize,
+                        int memoryBudget, Runnable onTileDecoded) throws IOException {
+        this.resources = resources;
+        this.resourceId = resourceId;
+        this.tileSize = tileSize;
+        step = tileSize - 2 * BORDER;
+        this.onTileDecoded = onTileDecoded;
+        pixelDecoder = new PixelDecoder(resources, GLES20.GL_LUMINANCE_ALPHA);
+        InputStream inputStream = resources.openRawResource(resourceId);
+        try {
+            decoder = BitmapRegionDecoder.newInstance(inputStream, false);
+        } finally {
+            inputStream.close();
+        }
+        width = decoder.getWidth();
+        height = decoder.getHeight();
+        tilesX = (width + step - 1) / step;
+        tilesY = (height + step - 1) / step;
+        // Each tile costs its two byte texels plus a third again for the mipmaps.
+        maxResident = Math.max(4, memoryBudget / (tileSize * tileSize * 2 * 4 / 3));
+        vtBuffer = ByteBuffer.allocateDirect(tilesX * tilesY * 4 * 4 * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                float s0 = (float) tx * step / width;
+                float s1 = (float) Math.min((tx + 1) * step, width) / width;
+                float t0 = (float) ty * step / height;
+                float t1 = (float) Math.min((ty + 1) * step, height) / height;
+                putVertex(s0, t1);
+                putVertex(s0, t0);
+                putVertex(s1, t1);
+                putVertex(s1, t0);
+            }
+        }
+        decodeOverview();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public FloatBuffer getVtBuffer() {
+        return vtBuffer;
+    }
+
+    /**
+     * Upload the overview decoded by the constructor.  Call on the GL thread
+     * once the context exists.
+     */
+    public void createOverview() {
+        overview = upload(overviewPixels, overviewWidth, overviewHeight);
+        overviewPixels = null;
+    }
+
+    /**
+     * @return the overview's texture memory, mipmaps included.
+     */
+    public long getOverviewBytes() {
+        return (long) overviewWidth * overviewHeight * 2 * 4 / 3;
+    }
+
+    /**
+     * Upload newly decoded tiles, work out which tiles the given view can see
+     * and ask for any that are missing.  Call on the GL thread before drawing.
+     *
+     * @return whether decoded tiles are still waiting and another frame is needed.
+     */
+    public boolean update(float[] mvpMatrix) {
+        Tile tile;
+        for (int i = 0; i < UPLOADS_PER_FRAME && (tile = decoded.poll()) != null; i++) {
+            requested.remove(tile.index);
+            resident.put(tile.index, upload(tile.pixels, tile.width, tile.height));
+            spareBuffers.add(tile.pixels);
+        }
+        findVisible(mvpMatrix, visible);
+        if (visible.size() <= maxResident) {
+            for (int index : visible) {
+                if (resident.containsKey(index)) {
+                    resident.get(index); // Touch to mark as recently used.
+                } else {
+                    request(index);
+                }
+            }
+        }
+        evict();
+        return !decoded.isEmpty();
+    }
+
+    /**
+     * Start decoding the tiles a future view will need.
+     */
+    public void prefetch(float[] mvpMatrix) {
+        List<Integer> future = new ArrayList<Integer>();
+        findVisible(mvpMatrix, future);
+        if (future.size() > maxResident) {
+            return;
+        }
+        for (int index : future) {
+            if (!resident.containsKey(index)) {
+                request(index);
+            }
+        }
+    }
+
+    /**
+     * Draw the tiles found by the last {@link #update(float[])}.  The shader
+     * parameters and vertex pointers must already be set up from
+     * {@link #getVtBuffer()}.
+     */
+    public void draw(Shaders shaders) {
+        boolean detailed = visible.size() <= maxResident;
+        for (int index : visible) {
+            Integer texture = detailed ? resident.get(index) : null;
+            if (texture == null) {
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overview);
+                shaders.setTile(0, 0, 1, 1);
+            } else {
+                int tx = index % tilesX;
+                int ty = index / tilesX;
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+                shaders.setTile((float) textureStart(tx, width) / width,
+                        (float) textureStart(ty, height) / height,
+                        (float) width / Math.min(tileSize, width),
+                        (float) height / Math.min(tileSize, height));
+            }
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, index * 4, 4);
+        }
+    }
+
+    /**
+     * Free the GL textures and stop the worker.  Call on the GL thread, or on
+     * any thread if {@link #createOverview()} hasn't been called.
+     *
+     * Interrupting the worker wouldn't stop a decode part way through its
+     * strips, so the region decoder and the strip are freed by the worker
+     * itself, after the decode it may be busy with.  Decodes still queued
+     * behind that one are skipped.
+     */
+    public void release() {
+        released = true;
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                decoder.recycle();
+                pixelDecoder.release();
+            }
+        });
+        worker.shutdown();
+        for (int texture : resident.values()) {
+            deleteTexture(texture);
+        }
+        resident.clear();
+        if (overview != 0) {
+            deleteTexture(overview);
+            overview = 0;
+        }
+        overviewPixels = null;
+        decoded.clear();
+        spareBuffers.clear();
+    }
+
+    private void decodeOverview() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = Math.max(1, width / OVERVIEW_SIZE);
+        Bitmap bitmap = BitmapFactory.decodeResource(resources, resourceId, options);
+        // pixelDecoder belongs to the worker.
+        PixelDecoder overviewDecoder = new PixelDecoder(resources, GLES20.GL_LUMINANCE_ALPHA);
+        overviewPixels = overviewDecoder.decode(bitmap, null);
+        overviewWidth = bitmap.getWidth();
+        overviewHeight = bitmap.getHeight();
+        bitmap.recycle();
+    }
+
+    /**
+     * Where the texture for the tile at index along an axis starts, in
+     * pixels of the face.  It is tileSize long, starting a border before the
+     * tile, but moved back from the far edge so that it stays inside the
+     * face.  That keeps every texture a power of two in size, as mipmaps need.
+     */
+    private int textureStart(int index, int size) {
+        return Math.max(0, Math.min(index * step - BORDER, size - tileSize));
+    }
+
+    private void putVertex(float s, float t) {
+        vtBuffer.put(s * 2 - 1);
+        vtBuffer.put(1 - t * 2);
+        vtBuffer.put(s);
+        vtBuffer.put(t);
+    }
+
+    /**
+     * A tile is visible unless all four corners are outside the same clipping
+     * plane.  Testing in clip space before the divide copes with corners
+     * behind the camera.
+     */
+    private void findVisible(float[] m, List<Integer> result) {
+        result.clear();
+        for (int index = 0; index < tilesX * tilesY; index++) {
+            int outside = 0x3f;
+            for (int corner = 0; corner < 4; corner++) {
+                float x = vtBuffer.get(index * 16 + corner * 4);
+                float y = vtBuffer.get(index * 16 + corner * 4 + 1);
+                float cx = m[0] * x + m[4] * y + m[12];
+                float cy = m[1] * x + m[5] * y + m[13];
+                float cz = m[2] * x + m[6] * y + m[14];
+                float cw = m[3] * x + m[7] * y + m[15];
+                int planes = 0;
+                if (cx < -cw) planes |= 1;
+                if (cx > cw) planes |= 2;
+                if (cy < -cw) planes |= 4;
+                if (cy > cw) planes |= 8;
+                if (cz < -cw) planes |= 16;
+                if (cz > cw) planes |= 32;
+                outside &= planes;
+            }
+            if (outside == 0) {
+                result.add(index);
+            }
+        }
+    }
+
+    private void request(final int index) {
+        if (!requested.add(index)) {
+            return;
+        }
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (released) {
+                    return;
+                }
+                decoded.add(decode(index));
+                onTileDecoded.run();
+            }
+        });
+    }
+
+    private Tile decode(int index) {
+        int tx = index % tilesX;
+        int ty = index / tilesX;
+        int left = textureStart(tx, width);
+        int top = textureStart(ty, height);
+        Rect rect = new Rect(left, top,
+                Math.min(left + tileSize, width), Math.min(top + tileSize, height));
+        Tile tile = new Tile();
+        tile.index = index;
+        tile.pixels = pixelDecoder.decode(decoder, rect, spareBuffers.poll());
+        tile.width = pixelDecoder.getWidth();
+        tile.height = pixelDecoder.getHeight();
+        return tile;
+    }
+
+    /**
+     * Drop least recently used tiles beyond the budget, but never one in view.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Integer, Integer>> iterator = resident.entrySet().iterator();
+        while (resident.size() > maxResident && iterator.hasNext()) {
+            Map.Entry<Integer, Integer> entry = iterator.next();
+            if (!visible.contains(entry.getKey())) {
+                deleteTexture(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    private int upload(ByteBuffer pixels, int width, int height) {
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        // Rows of two byte texels needn't start on four byte boundaries.
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 2);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0,
+                GLES20.GL_LUMINANCE_ALPHA, width, height, 0,
+                GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, pixels);
+        GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR_MIPMAP_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        return textures[0];
+    }
+
+    private void deleteTexture(int texture) {
+        textures[0] = texture;
+        GLES20.glDeleteTextures(1, textures, 0);
+    }
+}
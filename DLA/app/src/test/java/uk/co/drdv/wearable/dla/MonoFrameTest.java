@@ -0,0 +1,111 @@
+package uk.co.drdv.wearable.dla;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MonoFrameTest {
+
+    @Test
+    public void setIgnoresPixelsOutsideTheFrame() {
+        MonoFrame frame = new MonoFrame(40, 3);
+        frame.set(-1, 0);
+        frame.set(40, 0);
+        frame.set(0, 3);
+        frame.set(33, 2);
+        assertEquals(1, frame.countSet());
+        assertTrue(frame.get(33, 2));
+        assertFalse(frame.get(32, 2));
+    }
+
+    @Test
+    public void stampIsClippedToTheFrame() {
+        MonoFrame mask = new MonoFrame(3, 3);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                mask.set(x, y);
+            }
+        }
+        MonoFrame frame = new MonoFrame(10, 10);
+        frame.stamp(mask, -1, 8);
+        assertEquals(4, frame.countSet());
+        assertTrue(frame.get(0, 8));
+        assertTrue(frame.get(1, 9));
+    }
+
+    @Test
+    public void emptyFrameNeedsNoClears() {
+        assertEquals(0, new MonoFrame(64, 64).plan(10));
+    }
+
+    @Test
+    public void runRepeatedDownRowsIsOneClear() {
+        MonoFrame frame = new MonoFrame(64, 64);
+        for (int y = 10; y < 20; y++) {
+            for (int x = 30; x < 40; x++) {
+                frame.set(x, y);
+            }
+        }
+        assertEquals(1, frame.plan(10));
+        int[] rects = frame.getRects();
+        assertEquals(30, rects[0]);
+        assertEquals(10, rects[1]);
+        assertEquals(40, rects[2]);
+        assertEquals(20, rects[3]);
+    }
+
+    @Test
+    public void runsOfDifferentWidthsAreNotJoined() {
+        MonoFrame frame = new MonoFrame(64, 64);
+        for (int x = 30; x < 40; x++) {
+            frame.set(x, 0);
+        }
+        for (int x = 30; x < 41; x++) {
+            frame.set(x, 1);
+        }
+        assertEquals(2, frame.plan(10));
+    }
+
+    @Test
+    public void clearsCoverExactlyTheWhitePixels() {
+        Random random = new Random(1);
+        MonoFrame frame = new MonoFrame(100, 80);
+        for (int i = 0; i < 2000; i++) {
+            frame.set(random.nextInt(100), random.nextInt(80));
+        }
+        int clears = frame.plan(Integer.MAX_VALUE - 1);
+        int[] rects = frame.getRects();
+        MonoFrame covered = new MonoFrame(100, 80);
+        int area = 0;
+        for (int i = 0; i < clears * 4; i += 4) {
+            for (int y = rects[i + 1]; y < rects[i + 3]; y++) {
+                for (int x = rects[i]; x < rects[i + 2]; x++) {
+                    assertTrue(frame.get(x, y));
+                    covered.set(x, y);
+                }
+            }
+            area += (rects[i + 2] - rects[i]) * (rects[i + 3] - rects[i + 1]);
+        }
+        // No white pixel missed, and none cleared twice.
+        assertEquals(frame.countSet(), covered.countSet());
+        assertEquals(frame.countSet(), area);
+    }
+
+    @Test
+    public void planGivesUpPastTheLimit() {
+        MonoFrame frame = new MonoFrame(64, 64);
+        for (int y = 0; y < 64; y++) {
+            for (int x = y & 1; x < 64; x += 2) {
+                frame.set(x, y);
+            }
+        }
+        // A checkerboard is a clear for every white pixel.
+        assertEquals(64 * 32, frame.plan(64 * 32));
+        assertEquals(101, frame.plan(100));
+        assertEquals(101, frame.getClears());
+    }
+}
@@ -0,0 +1,152 @@
+package uk.co.drdv.wearable.dla;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProfilerTest {
+
+    // In step with Profiler.
+    private static final int SLOTS = 16;
+    private static final int SAMPLES = 128;
+
+    private static final int PASS_A = 0;
+    private static final int PASS_B = 1;
+
+    private ScriptedBackend backend;
+    private Profiler profiler;
+
+    @Before
+    public void setUp() {
+        backend = new ScriptedBackend();
+        profiler = new Profiler(backend, "a", "b");
+    }
+
+    @Test
+    public void nullBackendMeasuresNothing() {
+        Profiler off = new Profiler(null, "a");
+        off.begin(PASS_A);
+        off.end();
+        off.collect();
+        off.release();
+        assertEquals(-1, off.getPercentile(PASS_A, 0.5f));
+    }
+
+    @Test
+    public void passesTakeSlotsRoundTheRing() {
+        for (int i = 0; i < SLOTS + 2; i++) {
+            measure(PASS_A, i, 1000);
+        }
+        assertEquals(SLOTS + 2, backend.getBegun().size());
+        assertEquals(Integer.valueOf(0), backend.getBegun().get(SLOTS));
+        assertEquals(Integer.valueOf(1), backend.getBegun().get(SLOTS + 1));
+        assertEquals(backend.getBegun(), backend.getEnded());
+    }
+
+    @Test
+    public void collectWaitsForTheOldestSlot() {
+        profiler.begin(PASS_A);
+        profiler.end();
+        profiler.begin(PASS_B);
+        profiler.end();
+        backend.finish(1, 2000);
+        profiler.collect();
+        // Slot 1 is ready but slot 0 isn't, so neither is taken.
+        assertEquals(-1, profiler.getPercentile(PASS_B, 0.5f));
+        backend.finish(0, 1000);
+        profiler.collect();
+        assertEquals(1000, profiler.getPercentile(PASS_A, 0.5f));
+        assertEquals(2000, profiler.getPercentile(PASS_B, 0.5f));
+    }
+
+    @Test
+    public void discardedResultsFreeTheSlotWithoutASample() {
+        profiler.begin(PASS_A);
+        profiler.end();
+        backend.finish(0, Profiler.DISCARDED);
+        profiler.collect();
+        assertEquals(-1, profiler.getPercentile(PASS_A, 0.5f));
+        measure(PASS_A, 1, 3000);
+        assertEquals(3000, profiler.getPercentile(PASS_A, 0.5f));
+    }
+
+    @Test
+    public void fullRingSkipsPassesUntilCollected() {
+        for (int i = 0; i < SLOTS; i++) {
+            profiler.begin(PASS_A);
+            profiler.end();
+        }
+        profiler.begin(PASS_B);
+        profiler.end();
+        assertEquals(SLOTS, backend.getBegun().size());
+        assertEquals(SLOTS, backend.getEnded().size());
+        for (int slot = 0; slot < SLOTS; slot++) {
+            backend.finish(slot, 1000);
+        }
+        profiler.collect();
+        assertEquals(-1, profiler.getPercentile(PASS_B, 0.5f));
+        measure(PASS_B, 0, 2000);
+        assertEquals(2000, profiler.getPercentile(PASS_B, 0.5f));
+    }
+
+    @Test
+    public void percentilesComeFromSortedSamples() {
+        long[] nanos = new long[100];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = (i * 37 % 100 + 1) * 1000L; // 1 to 100 us, shuffled.
+        }
+        for (int i = 0; i < nanos.length; i++) {
+            measure(PASS_A, i % SLOTS, nanos[i]);
+        }
+        Arrays.sort(nanos);
+        assertEquals(nanos[50], profiler.getPercentile(PASS_A, 0.5f));
+        assertEquals(nanos[90], profiler.getPercentile(PASS_A, 0.9f));
+        assertEquals(nanos[99], profiler.getPercentile(PASS_A, 0.99f));
+        assertEquals(nanos[99], profiler.getPercentile(PASS_A, 1));
+        assertEquals(nanos[0], profiler.getPercentile(PASS_A, 0));
+    }
+
+    @Test
+    public void onlyTheLatestSamplesAreKept() {
+        for (int i = 0; i < SAMPLES + 50; i++) {
+            measure(PASS_A, i % SLOTS, (i + 1) * 1000L);
+        }
+        // The first 50 have been overwritten.
+        assertEquals(51000, profiler.getPercentile(PASS_A, 0));
+        assertEquals((SAMPLES + 50) * 1000L, profiler.getPercentile(PASS_A, 1));
+    }
+
+    @Test
+    public void passesKeepSeparateSamples() {
+        measure(PASS_A, 0, 1000);
+        measure(PASS_B, 1, 5000);
+        assertEquals(1000, profiler.getPercentile(PASS_A, 0.5f));
+        assertEquals(5000, profiler.getPercentile(PASS_B, 0.5f));
+    }
+
+    @Test
+    public void reportNamesEveryPass() {
+        measure(PASS_A, 0, 2000);
+        String report = profiler.report();
+        assertTrue(report, report.contains("a: p50 2us"));
+        assertTrue(report, report.contains("b: p50 "));
+    }
+
+    @Test
+    public void releaseReachesTheBackend() {
+        profiler.release();
+        assertTrue(backend.isReleased());
+    }
+
+    // One pass in the given slot, finished and collected straight away.
+    private void measure(int pass, int slot, long nanos) {
+        profiler.begin(pass);
+        profiler.end();
+        backend.finish(slot, nanos);
+        profiler.collect();
+    }
+}
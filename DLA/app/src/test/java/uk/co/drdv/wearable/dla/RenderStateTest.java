@@ -0,0 +1,78 @@
+package uk.co.drdv.wearable.dla;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RenderStateTest {
+
+    private int redraws;
+    private RenderState renderState;
+
+    @Before
+    public void setUp() {
+        renderState = new RenderState(new Runnable() {
+            @Override
+            public void run() {
+                redraws++;
+            }
+        });
+    }
+
+    @Test
+    public void nothingMarkedTakesNothing() {
+        assertEquals(0, renderState.take());
+        assertEquals(0, redraws);
+    }
+
+    @Test
+    public void burstOfMarksAsksForOneFrame() {
+        renderState.mark(RenderState.TIME);
+        renderState.mark(RenderState.MODE);
+        renderState.mark(RenderState.TIME | RenderState.GEOMETRY);
+        assertEquals(1, redraws);
+        assertEquals(RenderState.TIME | RenderState.MODE | RenderState.GEOMETRY,
+                renderState.take());
+    }
+
+    @Test
+    public void takeClearsTheMarks() {
+        renderState.mark(RenderState.VISIBILITY);
+        renderState.take();
+        assertEquals(0, renderState.take());
+    }
+
+    @Test
+    public void markAfterTakeAsksForAnotherFrame() {
+        renderState.mark(RenderState.TIME);
+        renderState.take();
+        renderState.mark(RenderState.TIME);
+        assertEquals(2, redraws);
+        assertEquals(RenderState.TIME, renderState.take());
+    }
+
+    @Test
+    public void keepDoesNotAskForAFrame() {
+        renderState.keep(RenderState.GEOMETRY);
+        assertEquals(0, redraws);
+        assertEquals(RenderState.GEOMETRY, renderState.take());
+    }
+
+    @Test
+    public void keepRidesAlongWithAPendingFrame() {
+        renderState.mark(RenderState.TIME);
+        renderState.keep(RenderState.GEOMETRY);
+        renderState.mark(RenderState.MODE);
+        assertEquals(1, redraws);
+        assertEquals(RenderState.TIME | RenderState.GEOMETRY | RenderState.MODE,
+                renderState.take());
+    }
+
+    @Test
+    public void keepDoesNotStopAMarkAskingForAFrame() {
+        renderState.keep(RenderState.GEOMETRY);
+        renderState.mark(RenderState.TIME);
+        assertEquals(1, redraws);
+    }
+}
@@ -0,0 +1,146 @@
+package uk.co.drdv.wearable.dla;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedCacheTest {
+
+    // The values are shared by the whole process, so every test has its own keys.
+
+    private static class CountingBuilder implements SharedCache.Builder<Object> {
+        int builds;
+
+        @Override
+        public Object build() {
+            builds++;
+            return new Object();
+        }
+    }
+
+    @Test
+    public void secondBorrowerGetsTheSameValue() {
+        CountingBuilder builder = new CountingBuilder();
+        SharedCache first = new SharedCache();
+        SharedCache second = new SharedCache();
+        Object a = first.borrow("same", builder);
+        Object b = second.borrow("same", builder);
+        assertSame(a, b);
+        assertEquals(1, builder.builds);
+        first.giveBackAll();
+        second.giveBackAll();
+    }
+
+    @Test
+    public void valueIsKeptUntilTheLastBorrowerGivesItBack() {
+        CountingBuilder builder = new CountingBuilder();
+        SharedCache first = new SharedCache();
+        SharedCache second = new SharedCache();
+        Object a = first.borrow("kept", builder);
+        second.borrow("kept", builder);
+        first.giveBack("kept");
+        // Still borrowed by second, so a third engine shares it.
+        SharedCache third = new SharedCache();
+        assertSame(a, third.borrow("kept", builder));
+        second.giveBack("kept");
+        third.giveBack("kept");
+        assertNotSame(a, first.borrow("kept", builder));
+        assertEquals(2, builder.builds);
+        first.giveBackAll();
+    }
+
+    @Test
+    public void givingBackWhatIsNotBorrowedDoesNothing() {
+        CountingBuilder builder = new CountingBuilder();
+        SharedCache owner = new SharedCache();
+        SharedCache other = new SharedCache();
+        Object a = owner.borrow("stranger", builder);
+        other.giveBack("stranger");
+        other.giveBackAll();
+        owner.giveBack("stranger");
+        owner.giveBack("stranger"); // Once too often.
+        SharedCache next = new SharedCache();
+        assertNotSame(a, next.borrow("stranger", builder));
+        next.giveBackAll();
+    }
+
+    @Test
+    public void giveBackAllReturnsEveryBorrow() {
+        CountingBuilder builder = new CountingBuilder();
+        SharedCache engine = new SharedCache();
+        Object a = engine.borrow("all.a", builder);
+        engine.borrow("all.a", builder); // Borrowed twice, given back twice.
+        Object b = engine.borrow("all.b", builder);
+        engine.giveBackAll();
+        SharedCache next = new SharedCache();
+        assertNotSame(a, next.borrow("all.a", builder));
+        assertNotSame(b, next.borrow("all.b", builder));
+        assertEquals(4, builder.builds);
+        next.giveBackAll();
+    }
+
+    @Test
+    public void failedBuildIsNotKept() {
+        SharedCache engine = new SharedCache();
+        try {
+            engine.borrow("failing", new SharedCache.Builder<Object>() {
+                @Override
+                public Object build() {
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        CountingBuilder builder = new CountingBuilder();
+        engine.borrow("failing", builder);
+        assertEquals(1, builder.builds);
+        engine.giveBackAll();
+    }
+
+    @Test
+    public void concurrentBorrowersBuildOnce() throws InterruptedException {
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingBuilder builder = new CountingBuilder();
+        final SharedCache first = new SharedCache();
+        final Object[] values = new Object[2];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                values[0] = first.borrow("slow", new SharedCache.Builder<Object>() {
+                    @Override
+                    public Object build() {
+                        building.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return builder.build();
+                    }
+                });
+            }
+        });
+        thread.start();
+        assertTrue(building.await(5, TimeUnit.SECONDS));
+        // Other keys aren't held up by the slow build.
+        SharedCache second = new SharedCache();
+        second.borrow("fast", new CountingBuilder());
+        release.countDown();
+        values[1] = second.borrow("slow", builder);
+        thread.join();
+        assertSame(values[0], values[1]);
+        assertEquals(1, builder.builds);
+        first.giveBackAll();
+        second.giveBackAll();
+    }
+}
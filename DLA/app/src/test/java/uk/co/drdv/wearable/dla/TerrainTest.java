@@ -0,0 +1,102 @@
+package uk.co.drdv.wearable.dla;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TerrainTest {
+
+    // In step with Terrain.
+    private static final int CHUNKS = 8;
+    private static final int COARSEST = 2;
+
+    // Clip space is face space, so every chunk is in view.
+    private static final float[] IDENTITY = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1
+    };
+
+    @Test
+    public void levelsDropWithDistanceFromTheLookAtPoint() {
+        Terrain terrain = flatTerrain(100000);
+        terrain.chooseLevels(IDENTITY, 0, 0);
+        assertEquals(0, terrain.getLevel(chunk(3, 3)));
+        assertEquals(0, terrain.getLevel(chunk(4, 4)));
+        assertEquals(1, terrain.getLevel(chunk(1, 3)));
+        assertEquals(COARSEST, terrain.getLevel(chunk(0, 0)));
+        assertEquals(COARSEST, terrain.getLevel(chunk(7, 7)));
+    }
+
+    @Test
+    public void levelsFollowTheLookAtPoint() {
+        Terrain terrain = flatTerrain(100000);
+        terrain.chooseLevels(IDENTITY, -0.875f, 0.875f);
+        assertEquals(0, terrain.getLevel(chunk(0, 0)));
+        assertEquals(COARSEST, terrain.getLevel(chunk(7, 7)));
+    }
+
+    @Test
+    public void chunksOutOfViewAreCulled() {
+        // Only the left half of the face is on screen.
+        float[] leftHalf = IDENTITY.clone();
+        leftHalf[0] = 2;
+        leftHalf[12] = 1.01f;
+        Terrain terrain = flatTerrain(100000);
+        terrain.chooseLevels(leftHalf, -0.5f, 0);
+        for (int row = 0; row < CHUNKS; row++) {
+            for (int column = 0; column < CHUNKS; column++) {
+                int level = terrain.getLevel(chunk(column, row));
+                assertTrue(column < CHUNKS / 2 ? level >= 0 : level == -1);
+            }
+        }
+    }
+
+    @Test
+    public void furthestChunksAreCoarsenedToFitTheBudget() {
+        int budget = 4096;
+        Terrain terrain = flatTerrain(budget);
+        terrain.chooseLevels(IDENTITY, 0.3f, -0.2f);
+        int total = 0;
+        for (int chunk = 0; chunk < CHUNKS * CHUNKS; chunk++) {
+            total += Terrain.vertexCount(terrain.getLevel(chunk));
+        }
+        assertTrue(total <= budget);
+        // Nothing is finer than a chunk nearer the look-at point.
+        for (int a = 0; a < CHUNKS * CHUNKS; a++) {
+            for (int b = 0; b < CHUNKS * CHUNKS; b++) {
+                if (distance(a, 0.3f, -0.2f) < distance(b, 0.3f, -0.2f)) {
+                    assertTrue(terrain.getLevel(a) <= terrain.getLevel(b));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void budgetTooSmallLeavesEverythingCoarsest() {
+        Terrain terrain = flatTerrain(1);
+        terrain.chooseLevels(IDENTITY, 0, 0);
+        for (int chunk = 0; chunk < CHUNKS * CHUNKS; chunk++) {
+            assertEquals(COARSEST, terrain.getLevel(chunk));
+        }
+    }
+
+    private static Terrain flatTerrain(int vertexBudget) {
+        return new Terrain(ByteBuffer.allocate(128 * 128 * 2), 128, 128, vertexBudget);
+    }
+
+    private static int chunk(int column, int row) {
+        return row * CHUNKS + column;
+    }
+
+    // From the look-at point to the chunk's centre.
+    private static double distance(int chunk, float lookX, float lookY) {
+        float x = (chunk % CHUNKS + 0.5f) * 2 / CHUNKS - 1;
+        float y = 1 - (chunk / CHUNKS + 0.5f) * 2 / CHUNKS;
+        return Math.hypot(x - lookX, y - lookY);
+    }
+}
@@ -0,0 +1,7 @@
+// Particles frozen in place for the ambient snapshot.
+
+precision mediump float;
+uniform sampler2D s_texture;
+void main() {
+  gl_FragColor = texture2D(s_texture, gl_PointCoord);
+}
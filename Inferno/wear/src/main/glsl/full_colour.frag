@@ -0,0 +1,25 @@
+// Fades particles in then out again as they rise, yellow to red.
+
+precision mediump float;
+uniform sampler2D s_texture;
+varying float v_blend;
+varying float v_colour;
+void main() {
+  if (v_colour < 0.0) {
+    gl_FragColor = vec4(0.3, 0.3, 0.4, 1.0);
+    return;
+  }
+  vec4 colour = texture2D(s_texture, gl_PointCoord);
+  float green = colour.g * (1.0 - v_blend);
+  float alpha;
+  if (v_blend <= 0.1) {
+    alpha = v_blend * 0.5;
+  } else {
+    alpha = 0.5 - v_blend * 0.45;
+  }
+  if (v_colour > 0.0) {
+    gl_FragColor = vec4(colour.r, green, green / 2.0, colour.a * alpha);
+  } else {
+    gl_FragColor = vec4(green / 2.0, green, colour.b, colour.a * alpha);
+  }
+}
@@ -0,0 +1,19 @@
+// Moves the particles up and away from where they start, in both modes.
+// Keep the particle size in step with POINT_SIZE in InfernoWatchFaceService.
+
+uniform float u_timer;
+// The direction the flames rise in, a unit vector.
+uniform vec2 u_tilt;
+attribute vec4 a_position;
+attribute float a_timeBase;
+attribute float a_colour;
+varying float v_blend;
+varying float v_colour;
+void main() {
+  v_colour = a_colour;
+  v_blend = fract(u_timer * a_timeBase);
+  float offset = v_blend * a_timeBase;
+  gl_Position = a_position + vec4(u_tilt * offset * 0.18, 0.0, 0.0);
+  // Outline points (a_colour < 0) are a single pixel.
+  gl_PointSize = a_colour < 0.0 ? 1.0 : 10.0;
+}
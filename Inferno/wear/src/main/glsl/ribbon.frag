@@ -0,0 +1,49 @@
+// Flames rising from a hand, made from scrolling noise rather than particles.
+// Yellow at the hand, fading to red then nothing as they rise, like the
+// particles in full_colour.frag.
+
+#ifdef GL_FRAGMENT_PRECISION_HIGH
+precision highp float;
+#else
+precision mediump float;
+#endif
+uniform float u_timer;
+varying vec2 v_local;
+varying vec2 v_tilt;
+varying float v_length;
+
+// A hash that holds up at medium precision, unlike the sin() one.
+float hash(vec2 p) {
+  vec3 p3 = fract(vec3(p.xyx) * 0.1031);
+  p3 += dot(p3, p3.yzx + 33.33);
+  return fract((p3.x + p3.y) * p3.z);
+}
+
+float noise(vec2 p) {
+  vec2 i = floor(p);
+  vec2 f = fract(p);
+  f = f * f * (3.0 - 2.0 * f);
+  return mix(mix(hash(i), hash(i + vec2(1.0, 0.0)), f.x),
+             mix(hash(i + vec2(0.0, 1.0)), hash(i + vec2(1.0, 1.0)), f.x), f.y);
+}
+
+void main() {
+  // Measure from the nearest point on the hand: up the way the flames rise,
+  // as a fraction of RISE, and across it, as a fraction of HALF_WIDTH.
+  vec2 fromHand = v_local - vec2(clamp(v_local.x, 0.0, v_length), 0.0);
+  float height = dot(fromHand, v_tilt) / 0.2;
+  float across = abs(fromHand.x * v_tilt.y - fromHand.y * v_tilt.x) / 0.04;
+  if (height < -0.2 || height > 1.0 || across > 1.0) {
+    gl_FragColor = vec4(0.0);
+    return;
+  }
+  // Wrapping the time keeps the noise lookups small enough for mediump, at
+  // the cost of a jump once a minute or so.
+  float flicker = noise(vec2(v_local.x * 40.0, height * 4.0 - mod(u_timer, 64.0) * 3.0));
+  float rise = clamp(height, 0.0, 1.0);
+  float alpha = clamp(flicker * 1.5 - rise, 0.0, 1.0)
+      * (1.0 - across * across)
+      * clamp((height + 0.2) * 5.0, 0.0, 1.0);
+  float green = 1.0 - rise;
+  gl_FragColor = vec4(1.0, green, green / 2.0, alpha * 0.8);
+}
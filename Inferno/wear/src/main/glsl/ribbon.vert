@@ -0,0 +1,29 @@
+// Flame ribbons for the hands in full colour mode, one quad per hand in
+// place of hundreds of particles.  The quad covers the hand and HALF_WIDTH
+// (0.04) all round it, and reaches RISE (0.2) further on the sides the
+// flames rise towards.  Keep both in step with ribbon.frag and
+// InfernoWatchFaceService.
+
+uniform vec2 u_tilt;
+// The start or end of the hand.
+attribute vec4 a_position;
+// Unit vector from the start of the hand to the end.
+attribute vec2 a_direction;
+// -1 or 1 for the start or end, -1 or 1 for the side, then the length of
+// the hand.  Packed into one so the ribbons use no more attributes than the
+// particles do.
+attribute vec3 a_corner;
+// Along the hand from its start, then out to its left, in clip units.
+varying vec2 v_local;
+// u_tilt in the same frame.
+varying vec2 v_tilt;
+varying float v_length;
+void main() {
+  vec2 normal = vec2(-a_direction.y, a_direction.x);
+  v_tilt = vec2(dot(u_tilt, a_direction), dot(u_tilt, normal));
+  vec2 grow = vec2(0.04) + 0.2 * max(a_corner.xy * v_tilt, 0.0);
+  vec2 offset = a_corner.xy * grow;
+  v_local = vec2((a_corner.x + 1.0) * 0.5 * a_corner.z, 0.0) + offset;
+  v_length = a_corner.z;
+  gl_Position = a_position + vec4(a_direction * offset.x + normal * offset.y, 0.0, 0.0);
+}
@@ -4,13 +4,16 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.content.res.Resources;
+import android.hardware.SensorManager;
 import android.opengl.GLES20;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.SystemClock;
 import android.support.wearable.watchface.Gles2WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.text.format.Time;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
@@ -18,7 +21,6 @@ import android.view.WindowInsets;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.TimeZone;
 
 public class InfernoWatchFaceService extends Gles2WatchFaceService {
@@ -28,17 +30,69 @@ public class InfernoWatchFaceService extends Gles2WatchFaceService {
         return new InfernoEngine();
     }
 
-    private class InfernoEngine extends Engine {
+    private class InfernoEngine extends Engine implements ResourceManager.Client {
 
         private static final String TIME_ZONE = "time-zone";
         private static final int PARTICLES = 12 * 40 + 448 + 256;
         private static final int LINES = 12;
+        private static final long RELEASE_DELAY_MILLIS = 60000L;
+        private static final long MEMORY_BUDGET_BYTES = 1024 * 1024;
+        // Time each pass and log percentiles every REPORT_FRAMES frames.
+        private static final boolean PROFILE = false;
+        private static final int REPORT_FRAMES = 600;
+        private static final int PASS_PARTICLES = 0;
+        private static final int PASS_SNAPSHOT = 1;
+        private static final int PASS_BLIT = 2;
+        // Size of each particle on screen, in pixels, whatever the screen size.
+        private static final int POINT_SIZE = 10;
+        // Reorder the hub and hands along a Z-order curve after each rebuild.
+        // In TileSimulator's binning model the tiles cost the same either way,
+        // and Z-order only saves up to 5% of the vertex fetches, a few KB a
+        // frame, so this is off.  With PROFILE set the two are compared.
+        private static final boolean MORTON_ORDER = false;
+        private static final int HUB = 12 * 40;
+        private static final int HANDS = 256 + 448;
+        // Draw the hands in full colour as two flame ribbons, shaded from
+        // noise, instead of as particles.  The hub, the outline and the ambient
+        // snapshot stay as particles.  With PROFILE set the two are compared.
+        private static final boolean RIBBONS = false;
+        private static final int PASS_RIBBONS = 3;
+        // A quad for each hand, joined by two degenerate vertices.
+        private static final int RIBBON_VERTICES = 10;
+        // x, y, direction x, y, corner x, y, hand length.
+        private static final int RIBBON_STRIDE = 7;
+        // In step with ribbon.vert.
+        private static final float RIBBON_HALF_WIDTH = 0.04f;
+        private static final float RIBBON_RISE = 0.2f;
+        // Where the ambient particles are frozen on their way up.
+        private static final float AMBIENT_TIMER = 0.1f;
+        // Draw ambient mode as a one bit frame from the CPU even where the
+        // screen isn't low-bit.  With PROFILE set, the GL path is drawn as
+        // well so that the two can be compared.
+        private static final boolean MONO_AMBIENT = false;
+        // Past this many scissored clears, a mono frame is drawn by the GL
+        // path instead.  The hub and hands take about 140 to 250 on 320 to
+        // 454 pixel screens.
+        private static final int MAX_MONO_CLEARS = 1024;
+        private static final int PASS_MONO = 4;
+        // With PROFILE set, the outline is drawn in a call of its own so
+        // that its share of the particles pass can be seen.
+        private static final int PASS_OUTLINE = 5;
 
         private Time time = new Time();
         private boolean registeredTimeZoneReceiver;
         private Shaders shaders;
         private FloatBuffer vBuffer;
-        private FloatBuffer lineVBuffer;
+        // vBuffer on the GPU.  Only the hands change, so only they are sent
+        // again, once a minute.
+        private int[] vertexBuffers = new int[1];
+        // The outline is a line of single pixel points so that it can share
+        // the particles' program and draw call.  They are spaced no more than
+        // a pixel apart at the surface's size, so that it looks solid.  That
+        // is thousands of points, which is why they are kept on the GPU.
+        private int pointsPerLine;
+        private int outline; // Points in the outline, ahead of the particles.
+        private String outlineKey; // Borrowed from sharedCache for the outline and hub.
         private int[] textures = new int[1];
         private int textureWidth;
         private int textureHeight;
@@ -46,12 +100,38 @@ public class InfernoWatchFaceService extends Gles2WatchFaceService {
         private int minute = -1;
         private float timer = 0;
         private boolean isSquare = true;
+        private TiltSensor tiltSensor;
+        private ResourceManager resourceManager;
+        private final SharedCache sharedCache = new SharedCache();
+        private ByteBuffer pendingPixels; // Decoded, waiting to be uploaded.
+        private Handler handler = new Handler();
+        private long createdMillis;
+        private boolean compilePending;
+        // The ambient frame, drawn once per hand position into a texture.
+        private int[] snapshotTexture = new int[1];
+        private int[] snapshotFramebuffer = new int[1];
+        private boolean snapshotValid;
+        private FloatBuffer blitBuffer; // Vertex, texture interleaved.
+        private FloatBuffer ribbonBuffer;
+        private int surfaceWidth;
+        private int surfaceHeight;
+        private Profiler profiler;
+        private int profiledFrames;
+        private int particleResource;
+        private RenderState renderState;
+        private boolean lowBitAmbient;
+        // A particle as the ambient program draws it, thresholded to one bit.
+        private MonoFrame monoStamp;
+        // The hub, which never moves, and it with the hands on.
+        private MonoFrame monoBase;
+        private MonoFrame monoFrame;
+        private boolean monoValid;
 
         private final BroadcastReceiver timeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 time.clear(intent.getStringExtra(TIME_ZONE));
-                time.setToNow();
+                renderState.mark(RenderState.TIME | RenderState.GEOMETRY);
             }
         };
 
@@ -66,16 +146,32 @@ public class InfernoWatchFaceService extends Gles2WatchFaceService {
                     .setShowSystemUiTime(false)
                     .build());
             startMillis = SystemClock.elapsedRealtime();
+            createdMillis = startMillis;
+            SensorManager sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+            tiltSensor = new TiltSensor(new TiltSensor.AccelerometerSource(sensorManager));
+            resourceManager = new ResourceManager(this, RELEASE_DELAY_MILLIS, MEMORY_BUDGET_BYTES);
+            renderState = new RenderState(new Runnable() {
+                @Override
+                public void run() {
+                    invalidate();
+                }
+            });
+            // Each particle maps the whole texture onto POINT_SIZE pixels.
+            particleResource = new TextureSelector()
+                    .add(R.drawable.particle_16, 16)
+                    .add(R.drawable.particle, 32)
+                    .select(POINT_SIZE);
+            // Decode while the GL context and surface are being set up.
+            resourceManager.load();
         }
 
         @Override
-        public void onGlContextCreated() {
-            super.onGlContextCreated();
-            time.setToNow();
-            shaders = new Shaders();
-            createHub();
-            createHands();
-            createDecagon();
+        public void onDestroy() {
+            tiltSensor.stop();
+            resourceManager.destroy();
+            sharedCache.giveBackAll();
+            handler.removeCallbacks(compileRunnable);
+            super.onDestroy();
         }
 
         @Override
@@ -83,56 +179,193 @@ public class InfernoWatchFaceService extends Gles2WatchFaceService {
             super.onGlSurfaceCreated(width, height);
             GLES20.glEnable(GLES20.GL_BLEND);
             GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-            makeTexture();
+            surfaceWidth = width;
+            surfaceHeight = height;
+            if (shaders != null) {
+                releaseSnapshot(); // Wrong size now.
+                createVertices(); // So is the outline.
+                renderState.mark(RenderState.GEOMETRY);
+            }
+            monoBase = null;
+            monoFrame = null;
         }
 
         @Override
-        public void onAmbientModeChanged(boolean inAmbientMode) {
-            super.onAmbientModeChanged(inAmbientMode);
-            if (!inAmbientMode) {
-                startMillis = SystemClock.elapsedRealtime();
-                time.setToNow();
-                createHands();
+        public void loadResources() {
+            pendingPixels = loadPixels();
+        }
+
+        @Override
+        public void uploadResources() {
+            shaders = new Shaders();
+            compilePending = true;
+            profiler = new Profiler(PROFILE ? new Profiler.CpuBackend() : null,
+                    "particles", "snapshot", "blit", "ribbons", "mono", "outline");
+            createVertices();
+            createRibbonBuffer();
+            // The hands go in when this frame reconciles.
+            renderState.keep(RenderState.TIME | RenderState.VISIBILITY | RenderState.GEOMETRY);
+            blitBuffer = sharedCache.borrow("inferno.blit", new SharedCache.Builder<FloatBuffer>() {
+                @Override
+                public FloatBuffer build() {
+                    return createBlitQuad();
+                }
+            });
+            createGlTexture(pendingPixels);
+            monoStamp = createMonoStamp(pendingPixels);
+            monoBase = null; // The hub may have moved.
+            pendingPixels = null;
+            // A full mipmap chain adds a third again.
+            resourceManager.setBytes("texture", textureWidth * textureHeight * 4 * 4 / 3);
+        }
+
+        @Override
+        public void releaseResources() {
+            sharedCache.giveBackAll();
+            outlineKey = null;
+            pendingPixels = null;
+            if (shaders == null) {
+                return; // Still loading, nothing on the GPU yet.
             }
+            makeContextCurrent();
+            shaders.release();
+            shaders = null;
+            profiler.release();
+            GLES20.glDeleteTextures(1, textures, 0);
+            GLES20.glDeleteBuffers(1, vertexBuffers, 0);
+            vertexBuffers[0] = 0;
+            releaseSnapshot();
+            vBuffer = null;
+            blitBuffer = null;
+            ribbonBuffer = null;
+            monoStamp = null;
+            monoBase = null;
+            monoFrame = null;
+        }
+
+        @Override
+        public void onResourcesLoaded() {
             invalidate();
         }
 
+        @Override
+        public void discardLoad() {
+            pendingPixels = null;
+            sharedCache.giveBack(particlePixelsKey());
+        }
+
+        private final Runnable compileRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (shaders == null) {
+                    return;
+                }
+                makeContextCurrent();
+                if (shaders.compileNext()) {
+                    handler.post(this);
+                }
+            }
+        };
+
+        private void onFrameDrawn() {
+            if (createdMillis != 0) {
+                Log.i("Inferno", "First frame after "
+                        + (SystemClock.elapsedRealtime() - createdMillis) + " ms");
+                createdMillis = 0;
+            }
+            if (compilePending) {
+                compilePending = false;
+                handler.post(compileRunnable);
+            }
+        }
+
+        @Override
+        public void onAmbientModeChanged(boolean inAmbientMode) {
+            super.onAmbientModeChanged(inAmbientMode);
+            updateTiltSensor();
+            renderState.mark(RenderState.TIME | RenderState.MODE | RenderState.GEOMETRY);
+        }
+
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
+            resourceManager.onVisibilityChanged(visible);
+            updateTiltSensor();
             if (visible) {
                 registerReceiver();
                 time.clear(TimeZone.getDefault().getID());
-                time.setToNow();
-                createHands();
-                startMillis = SystemClock.elapsedRealtime();
-                invalidate();
+                renderState.mark(RenderState.TIME | RenderState.VISIBILITY
+                        | RenderState.GEOMETRY);
             } else {
                 unregisterReceiver();
             }
         }
 
+        @Override
+        public void onPropertiesChanged(Bundle properties) {
+            super.onPropertiesChanged(properties);
+            lowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+        }
+
         @Override
         public void onTimeTick() { // Ambient mode refresh.
             super.onTimeTick();
-            time.setToNow();
-            createHands();
-            int currentMinute = time.minute;
-            if (minute != currentMinute) {
-                minute = currentMinute;
-                invalidate();
-            }
+            renderState.mark(RenderState.TIME);
         }
 
         @Override
         public void onDraw() {
             super.onDraw();
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            if (!resourceManager.prepareFrame()) {
+                return; // Leave the frame cleared until the particles are back.
+            }
+            reconcile(renderState.take());
+            profiler.collect();
             if (isInAmbientMode()) {
-                drawAmbient();
+                boolean mono = lowBitAmbient || MONO_AMBIENT;
+                if (mono && PROFILE) {
+                    drawAmbient(); // Only for timing, drawMono() clears it away.
+                }
+                if (!mono || !drawMono()) {
+                    drawAmbient();
+                }
             } else {
                 drawFullColour();
             }
+            if (PROFILE && ++profiledFrames % REPORT_FRAMES == 0) {
+                Log.i("Inferno", profiler.report());
+            }
+            onFrameDrawn();
+        }
+
+        /**
+         * Bring everything up to date with what changed since the last frame,
+         * doing each piece of work once however many events asked for it.
+         */
+        private void reconcile(int dirty) {
+            if ((dirty & RenderState.TIME) != 0) {
+                time.setToNow();
+                if (time.minute != minute) {
+                    minute = time.minute;
+                    dirty |= RenderState.GEOMETRY;
+                }
+            }
+            if ((dirty & (RenderState.MODE | RenderState.VISIBILITY)) != 0) {
+                startMillis = SystemClock.elapsedRealtime();
+            }
+            if ((dirty & RenderState.GEOMETRY) != 0) {
+                createHands();
+            }
+        }
+
+        // Only listen to the accelerometer while the flames can be seen moving.
+        private void updateTiltSensor() {
+            if (isVisible() && !isInAmbientMode()) {
+                tiltSensor.start();
+            } else {
+                tiltSensor.stop();
+            }
         }
 
         @Override
@@ -143,53 +376,305 @@ public class InfernoWatchFaceService extends Gles2WatchFaceService {
             }
         }
 
-        private void createHub() {
-            vBuffer = ByteBuffer.allocateDirect(PARTICLES * 4 * 4)
+        /**
+         * Make this engine's vertex buffer, the outline and hub followed by
+         * the hands, so that they all go in one draw call.  The outline and
+         * hub never move, and are copied from the ones other engines use.
+         * The hands must be put in again afterwards.
+         */
+        private void createVertices() {
+            final double[] xs = new double[LINES];
+            final double[] ys = new double[LINES];
+            createCorners(xs, ys);
+            double longest = 0;
+            for (int d = 0; d < LINES; d++) {
+                int next = (d + 1) % LINES;
+                longest = Math.max(longest, Math.hypot((xs[next] - xs[d]) * surfaceWidth / 2,
+                        (ys[next] - ys[d]) * surfaceHeight / 2));
+            }
+            pointsPerLine = Math.max(1, (int) Math.ceil(longest));
+            outline = LINES * pointsPerLine;
+            String key = (isSquare ? "inferno.outline.square." : "inferno.outline.round.")
+                    + pointsPerLine;
+            FloatBuffer fixed = sharedCache.borrow(key, new SharedCache.Builder<FloatBuffer>() {
+                @Override
+                public FloatBuffer build() {
+                    FloatBuffer buffer = ByteBuffer.allocateDirect((outline + HUB) * 4 * 4)
+                            .order(ByteOrder.nativeOrder())
+                            .asFloatBuffer();
+                    createDecagon(buffer, xs, ys);
+                    createHub(buffer);
+                    return buffer;
+                }
+            });
+            vBuffer = ByteBuffer.allocateDirect((outline + PARTICLES) * 4 * 4)
                     .order(ByteOrder.nativeOrder())
                     .asFloatBuffer();
+            // A duplicate, so as not to move the shared buffer's position
+            // under another engine.
+            FloatBuffer source = fixed.duplicate();
+            source.clear();
+            vBuffer.put(source);
+            // Held while resident, so that other engines don't build it
+            // again.  A new surface size may have changed the key.
+            if (outlineKey != null) {
+                sharedCache.giveBack(outlineKey);
+            }
+            outlineKey = key;
+            // The hands are put in afterwards with glBufferSubData.
+            if (vertexBuffers[0] == 0) {
+                GLES20.glGenBuffers(1, vertexBuffers, 0);
+            }
+            vBuffer.clear();
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffers[0]);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, (outline + PARTICLES) * 4 * 4, vBuffer,
+                    GLES20.GL_STATIC_DRAW);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            resourceManager.setBytes("vertices", (outline + PARTICLES) * 4 * 4);
+            if (PROFILE) {
+                Log.i("Inferno", "Outline: " + outline + " points for a " + surfaceWidth
+                        + " x " + surfaceHeight + " surface");
+            }
+        }
 
-            for (int d = 0; d < 480; d++) {
+        private void createHub(FloatBuffer buffer) {
+            buffer.position(outline * 4);
+            for (int d = 0; d < HUB; d++) {
                 double r = Math.toRadians(d * 360.0 / 480.0);
                 double x = 0.1 * Math.sin(r);
                 double y = 0.1 * Math.cos(r);
-                vBuffer.put((float) (x + Math.random() * 0.025 - 0.0125));
-                vBuffer.put((float) (y + Math.random() * 0.025 - 0.0125));
-                vBuffer.put((float) (Math.random())); // Time base.;
-                vBuffer.put(1);
+                buffer.put((float) (x + Math.random() * 0.025 - 0.0125));
+                buffer.put((float) (y + Math.random() * 0.025 - 0.0125));
+                buffer.put((float) (Math.random())); // Time base.;
+                buffer.put(1);
+            }
+            if (MORTON_ORDER) {
+                MortonOrder.sort(buffer, outline, HUB);
             }
         }
 
-        private void createDecagon() {
-            lineVBuffer = ByteBuffer.allocateDirect(LINES * 2 * 4)
-                    .order(ByteOrder.nativeOrder())
-                    .asFloatBuffer();
-            for (int d = 0; d < 12; d++) {
+        private void createCorners(double[] xs, double[] ys) {
+            for (int d = 0; d < LINES; d++) {
                 double r = Math.toRadians(d * 30 * 5);
                 double radius = 0.97;
                 if (isSquare && ((d * 30 * 5) % 90) != 0) {
                     radius = 1.1;
                 }
-                double x = radius * Math.sin(r);
-                double y = radius * Math.cos(r);
-                lineVBuffer.put((float) x);
-                lineVBuffer.put((float) y);
+                xs[d] = radius * Math.sin(r);
+                ys[d] = radius * Math.cos(r);
+            }
+        }
+
+        private void createDecagon(FloatBuffer buffer, double[] xs, double[] ys) {
+            // A colour of -1 marks the outline to the shaders.  With a time
+            // base of 0 the points never move.
+            buffer.position(0);
+            for (int d = 0; d < LINES; d++) {
+                int next = (d + 1) % LINES;
+                for (int i = 0; i < pointsPerLine; i++) {
+                    buffer.put((float) (xs[d] + (xs[next] - xs[d]) * i / pointsPerLine));
+                    buffer.put((float) (ys[d] + (ys[next] - ys[d]) * i / pointsPerLine));
+                    buffer.put(0);
+                    buffer.put(-1);
+                }
             }
         }
 
         private void drawAmbient() {
-            timer = 0.1f;
-            shaders.setAmbientParameters(vBuffer, timer);
-            GLES20.glDrawArrays(GLES20.GL_POINTS, 0, PARTICLES);
+            if (!snapshotValid) {
+                drawSnapshot();
+            }
+            // The snapshot already holds the blended result, so copy it as is.
+            GLES20.glDisable(GLES20.GL_BLEND);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, snapshotTexture[0]);
+            shaders.setBlitParameters(blitBuffer);
+            profiler.begin(PASS_BLIT);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            profiler.end();
+            GLES20.glEnable(GLES20.GL_BLEND);
         }
 
-        private void drawFullColour() {
-            shaders.setLineParameters(lineVBuffer);
-            GLES20.glDrawArrays(GLES20.GL_LINE_LOOP, 0, LINES);
+        /**
+         * Render the ambient particles into the snapshot texture.  This only
+         * needs doing when the hands move.
+         */
+        private void drawSnapshot() {
+            if (snapshotTexture[0] == 0) {
+                createSnapshot();
+            }
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, snapshotFramebuffer[0]);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+            timer = AMBIENT_TIMER;
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffers[0]);
+            shaders.setAmbientParameters(timer);
+            profiler.begin(PASS_SNAPSHOT);
+            GLES20.glDrawArrays(GLES20.GL_POINTS, outline, PARTICLES);
+            profiler.end();
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            snapshotValid = true;
+        }
+
+        private void createSnapshot() {
+            GLES20.glGenTextures(1, snapshotTexture, 0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, snapshotTexture[0]);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0,
+                    GLES20.GL_RGBA, surfaceWidth, surfaceHeight, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            // Copied pixel for pixel, and not a power of two so no mipmaps.
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                    GLES20.GL_TEXTURE_MIN_FILTER,
+                    GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                    GLES20.GL_TEXTURE_MAG_FILTER,
+                    GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                    GLES20.GL_TEXTURE_WRAP_S,
+                    GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                    GLES20.GL_TEXTURE_WRAP_T,
+                    GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glGenFramebuffers(1, snapshotFramebuffer, 0);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, snapshotFramebuffer[0]);
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, snapshotTexture[0], 0);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            resourceManager.setBytes("snapshot", surfaceWidth * surfaceHeight * 4);
+        }
+
+        private void releaseSnapshot() {
+            if (snapshotTexture[0] == 0) {
+                return;
+            }
+            GLES20.glDeleteFramebuffers(1, snapshotFramebuffer, 0);
+            GLES20.glDeleteTextures(1, snapshotTexture, 0);
+            snapshotFramebuffer[0] = 0;
+            snapshotTexture[0] = 0;
+            snapshotValid = false;
+            resourceManager.setBytes("snapshot", 0);
+        }
+
+        /**
+         * Ambient mode without the GL pipeline.  The hub is stamped into a
+         * one bit frame once, and only the hands are stamped over a copy of
+         * it when they move.  Putting it on screen is then only a few
+         * scissored clears.
+         *
+         * @return false, having drawn nothing, if the frame needs more than
+         * MAX_MONO_CLEARS clears.
+         */
+        private boolean drawMono() {
+            if (PROFILE) {
+                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT); // The GL path was only for timing.
+            }
+            long buildNanos = -1;
+            if (monoBase == null) {
+                monoBase = new MonoFrame(surfaceWidth, surfaceHeight);
+                monoFrame = new MonoFrame(surfaceWidth, surfaceHeight);
+                // The ambient snapshot has no outline either.
+                stampParticles(monoBase, outline, HUB);
+                monoValid = false;
+                resourceManager.setBytes("mono", monoBase.getBytes() * 2);
+            }
+            if (!monoValid) {
+                long start = System.nanoTime();
+                monoFrame.copyFrom(monoBase);
+                stampParticles(monoFrame, outline + HUB, HANDS);
+                buildNanos = System.nanoTime() - start;
+                monoValid = true;
+            }
+            profiler.begin(PASS_MONO);
+            boolean presented = monoFrame.present(MAX_MONO_CLEARS);
+            profiler.end();
+            if (PROFILE && buildNanos >= 0) {
+                // What a screen of white pixels costs stands in for energy.
+                Log.i("Inferno", "Mono ambient: hands patched in " + buildNanos / 1000
+                        + " us, " + (presented ? monoFrame.getClears() : "over " + MAX_MONO_CLEARS)
+                        + " clears, " + monoFrame.countSet() + " white pixels; GL ambient: "
+                        + PARTICLES * POINT_SIZE * POINT_SIZE + " snapshot fragments, "
+                        + surfaceWidth * surfaceHeight + " blit fragments");
+            }
+            return presented;
+        }
+
+        /**
+         * Stamp particles where particle.vert puts them for the ambient
+         * snapshot: moved straight up by AMBIENT_TIMER's share of their rise.
+         */
+        private void stampParticles(MonoFrame frame, int first, int count) {
+            for (int i = first; i < first + count; i++) {
+                float timeBase = vBuffer.get(i * 4 + 2);
+                float blend = AMBIENT_TIMER * timeBase;
+                blend -= (float) Math.floor(blend);
+                float x = vBuffer.get(i * 4);
+                float y = vBuffer.get(i * 4 + 1) + blend * timeBase * 0.18f;
+                int screenX = (int) ((x + 1) / 2 * surfaceWidth);
+                int screenY = (int) ((1 - y) / 2 * surfaceHeight);
+                frame.stamp(monoStamp, screenX - POINT_SIZE / 2, screenY - POINT_SIZE / 2);
+            }
+        }
+
+        /**
+         * The particle texture shrunk to POINT_SIZE pixels, white wherever it
+         * is more opaque than not.
+         */
+        private MonoFrame createMonoStamp(ByteBuffer pixels) {
+            MonoFrame stamp = new MonoFrame(POINT_SIZE, POINT_SIZE);
+            for (int y = 0; y < POINT_SIZE; y++) {
+                for (int x = 0; x < POINT_SIZE; x++) {
+                    int textureX = (2 * x + 1) * textureWidth / (2 * POINT_SIZE);
+                    int textureY = (2 * y + 1) * textureHeight / (2 * POINT_SIZE);
+                    int alpha = pixels.get((textureY * textureWidth + textureX) * 4 + 3) & 0xff;
+                    if (alpha > 127) {
+                        stamp.set(x, y);
+                    }
+                }
+            }
+            return stamp;
+        }
+
+        private FloatBuffer createBlitQuad() {
+            float[] vts = { // x, y, s, t.
+                    -1, -1, 0, 0,
+                    -1, 1, 0, 1,
+                    1, -1, 1, 0,
+                    1, 1, 1, 1
+            };
+            FloatBuffer quad = ByteBuffer.allocateDirect(vts.length * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            quad.put(vts);
+            return quad;
+        }
 
+        private void drawFullColour() {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
             long elapsed = SystemClock.elapsedRealtime() - startMillis;
             timer = elapsed / 1000f;
-            shaders.setFullColourParameters(vBuffer, timer);
-            GLES20.glDrawArrays(GLES20.GL_POINTS, 0, PARTICLES);
+            tiltSensor.update();
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffers[0]);
+            shaders.setFullColourParameters(timer, tiltSensor.getX(), tiltSensor.getY());
+            int count = RIBBONS ? outline + HUB : outline + PARTICLES;
+            if (PROFILE) {
+                profiler.begin(PASS_OUTLINE);
+                GLES20.glDrawArrays(GLES20.GL_POINTS, 0, outline);
+                profiler.end();
+                profiler.begin(PASS_PARTICLES);
+                GLES20.glDrawArrays(GLES20.GL_POINTS, outline, count - outline);
+            } else {
+                profiler.begin(PASS_PARTICLES);
+                GLES20.glDrawArrays(GLES20.GL_POINTS, 0, count);
+            }
+            profiler.end();
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            if (RIBBONS) {
+                shaders.setRibbonParameters(ribbonBuffer, timer,
+                        tiltSensor.getX(), tiltSensor.getY());
+                profiler.begin(PASS_RIBBONS);
+                GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, RIBBON_VERTICES);
+                profiler.end();
+            }
             invalidate();
         }
 
@@ -210,43 +695,37 @@ public class InfernoWatchFaceService extends Gles2WatchFaceService {
             InfernoWatchFaceService.this.unregisterReceiver(timeZoneReceiver);
         }
 
-        private void makeTexture() {
-            int[] pixels = loadBitmapAsPixels();
-            argbToAbgr(pixels);
-            createGlTexture(pixels);
+        private ByteBuffer loadPixels() {
+            final Resources resources = getApplicationContext().getResources();
+            PixelDecoder.Image particle = sharedCache.borrow(particlePixelsKey(),
+                    new SharedCache.Builder<PixelDecoder.Image>() {
+                        @Override
+                        public PixelDecoder.Image build() {
+                            PixelDecoder decoder = new PixelDecoder(resources);
+                            ByteBuffer pixels = decoder.decode(particleResource, null);
+                            decoder.release();
+                            return new PixelDecoder.Image(pixels, decoder.getWidth(),
+                                    decoder.getHeight());
+                        }
+                    });
+            textureWidth = particle.width;
+            textureHeight = particle.height;
+            return particle.pixels;
         }
 
-        private int[] loadBitmapAsPixels() {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-            Bitmap bitmap = BitmapFactory.decodeResource(
-                    getApplicationContext().getResources(), R.drawable.particle, options);
-            textureWidth = bitmap.getWidth();
-            textureHeight = bitmap.getHeight();
-            int[] pixels = new int[textureWidth * textureHeight];
-            bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0,
-                    bitmap.getWidth(), bitmap.getHeight());
-            return pixels;
+        // Borrowed from loading until the resources are released, so that an
+        // engine starting while another is resident doesn't decode the
+        // particle again.
+        private String particlePixelsKey() {
+            return "inferno.particle." + particleResource;
         }
 
-        private void argbToAbgr(int[] pixels) {
-            int length = pixels.length;
-            for (int i = 0; i < length; i++) {
-                int red = (pixels[i] >> 16) & 0xff;
-                int green = (pixels[i] >> 8) & 0xff;
-                int blue = pixels[i] & 0xff;
-                int alpha = pixels[i] & 0xff000000;
-                pixels[i] = alpha | (green << 8) | (red) | (blue << 16);
-            }
-        }
-
-        private void createGlTexture(int[] pixels) {
+        private void createGlTexture(ByteBuffer pixels) {
             GLES20.glGenTextures(1, textures, 0);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
-            IntBuffer intBuffer = IntBuffer.wrap(pixels);
             GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0,
                     GLES20.GL_RGBA, textureWidth, textureHeight, 0,
-                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, intBuffer);
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
             GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
                     GLES20.GL_TEXTURE_MIN_FILTER,
@@ -263,7 +742,12 @@ public class InfernoWatchFaceService extends Gles2WatchFaceService {
         }
 
         private void createHands() {
-            vBuffer.position(12 * 40 * 4);
+            if (vBuffer == null) {
+                return; // Released while invisible, rebuilt on upload.
+            }
+            snapshotValid = false;
+            monoValid = false;
+            vBuffer.position((outline + HUB) * 4);
             double minuteAngle = Math.toRadians(time.minute * 6 + time.second / 10.0);
             double hourAngle = Math.toRadians(time.hour * 30 + time.minute / 2.0);
             double minuteStartX = 0.1 * Math.sin(minuteAngle);
@@ -277,6 +761,116 @@ public class InfernoWatchFaceService extends Gles2WatchFaceService {
 
             pointStrip(hourStartX, hourStartY, hourEndX, hourEndY, 256);
             pointStrip(minuteStartX, minuteStartY, minuteEndX, minuteEndY, 448);
+            if (RIBBONS || PROFILE) {
+                ribbonBuffer.position(0);
+                ribbon(hourStartX, hourStartY, hourEndX, hourEndY, false);
+                ribbon(minuteStartX, minuteStartY, minuteEndX, minuteEndY, true);
+            }
+            if (PROFILE) {
+                compareParticleOrders();
+                compareHandRenderers();
+            }
+            if (MORTON_ORDER) {
+                MortonOrder.sort(vBuffer, outline + HUB, HANDS);
+            }
+            vBuffer.position((outline + HUB) * 4);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffers[0]);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, (outline + HUB) * 4 * 4,
+                    HANDS * 4 * 4, vBuffer);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            vBuffer.clear();
+        }
+
+        private void compareParticleOrders() {
+            if (surfaceWidth == 0) {
+                return;
+            }
+            FloatBuffer copy = ByteBuffer.allocateDirect(PARTICLES * 4 * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            vBuffer.position(outline * 4);
+            vBuffer.limit((outline + PARTICLES) * 4);
+            copy.put(vBuffer);
+            vBuffer.clear();
+            TileSimulator simulator = new TileSimulator(surfaceWidth, surfaceHeight, 16, 8);
+            TileSimulator.Result current = simulator.run(copy, 0, PARTICLES, POINT_SIZE);
+            MortonOrder.sort(copy, 0, HUB);
+            MortonOrder.sort(copy, HUB, HANDS);
+            TileSimulator.Result morton = simulator.run(copy, 0, PARTICLES, POINT_SIZE);
+            Log.i("Inferno", "Tiles as built: " + current + "; Z-order: " + morton);
+        }
+
+        private void createRibbonBuffer() {
+            ribbonBuffer = ByteBuffer.allocateDirect(RIBBON_VERTICES * RIBBON_STRIDE * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+
+        /**
+         * Add the quad for one hand to ribbonBuffer.  The second hand is
+         * joined on to the first by repeating a vertex from each, so both
+         * draw as a single strip.
+         */
+        private void ribbon(double startX, double startY, double endX, double endY,
+                            boolean joined) {
+            float length = (float) Math.hypot(endX - startX, endY - startY);
+            float directionX = (float) ((endX - startX) / length);
+            float directionY = (float) ((endY - startY) / length);
+            if (joined) {
+                ribbonVertex(startX, startY, directionX, directionY, -1, -1, length);
+            }
+            ribbonVertex(startX, startY, directionX, directionY, -1, -1, length);
+            ribbonVertex(startX, startY, directionX, directionY, -1, 1, length);
+            ribbonVertex(endX, endY, directionX, directionY, 1, -1, length);
+            ribbonVertex(endX, endY, directionX, directionY, 1, 1, length);
+            if (!joined) {
+                ribbonVertex(endX, endY, directionX, directionY, 1, 1, length);
+            }
+        }
+
+        private void ribbonVertex(double x, double y, float directionX, float directionY,
+                                  float end, float side, float length) {
+            ribbonBuffer.put((float) x);
+            ribbonBuffer.put((float) y);
+            ribbonBuffer.put(directionX);
+            ribbonBuffer.put(directionY);
+            ribbonBuffer.put(end);
+            ribbonBuffer.put(side);
+            ribbonBuffer.put(length);
+        }
+
+        /**
+         * Log what the hands cost as particles and as ribbons.  The profiler
+         * passes only give the time to submit them, this gives the GPU work.
+         */
+        private void compareHandRenderers() {
+            if (surfaceWidth == 0) {
+                return;
+            }
+            TileSimulator simulator = new TileSimulator(surfaceWidth, surfaceHeight, 16, 8);
+            long particleFragments = simulator.run(vBuffer, outline + HUB, HANDS, POINT_SIZE)
+                    .fragments;
+            // Each quad is the hand plus the half width all round, stretched
+            // by the rise on the sides facing the tilt.  Clip space is two
+            // units across.
+            float tiltX = tiltSensor.getX();
+            float tiltY = tiltSensor.getY();
+            float area = 0;
+            for (int hand = 0; hand < 2; hand++) {
+                // The first vertex is the hour hand's, the last the minute hand's.
+                int offset = hand * (RIBBON_VERTICES - 1) * RIBBON_STRIDE;
+                float directionX = ribbonBuffer.get(offset + 2);
+                float directionY = ribbonBuffer.get(offset + 3);
+                float length = ribbonBuffer.get(offset + 6);
+                float along = Math.abs(directionX * tiltX + directionY * tiltY);
+                float across = Math.abs(directionX * tiltY - directionY * tiltX);
+                area += (length + 2 * RIBBON_HALF_WIDTH + RIBBON_RISE * along)
+                        * (2 * RIBBON_HALF_WIDTH + RIBBON_RISE * across);
+            }
+            long ribbonFragments = (long) (area * surfaceWidth * surfaceHeight / 4);
+            Log.i("Inferno", "Hands as particles: " + HANDS + " vertices, "
+                    + particleFragments + " fragments; as ribbons: " + RIBBON_VERTICES
+                    + " vertices, " + ribbonFragments + " fragments");
         }
 
         private void pointStrip(double startX, double startY, double endX, double endY, int num) {
@@ -0,0 +1,63 @@
+package uk.co.drdv.wearable.inferno;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Sorts particles along a Z-order (Morton) curve of their screen position.
+ *
+ * Particles next to each other in the buffer then land on the same few
+ * screen tiles, which suits the binning and caches of tile-based GPUs better
+ * than the order the hands were generated in.
+ */
+public class MortonOrder {
+
+    // Each vertex is x, y, time base, colour.
+    private static final int STRIDE = 4;
+    private static final int BITS = 10;
+    // Covers the particles even after they have floated up past the edge.
+    private static final float EXTENT = 1.5f;
+
+    private MortonOrder() {
+    }
+
+    /**
+     * Reorder count vertices starting at vertex first, in place.
+     */
+    public static void sort(FloatBuffer buffer, int first, int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            float x = buffer.get((first + i) * STRIDE);
+            float y = buffer.get((first + i) * STRIDE + 1);
+            // Index in the low bits keeps the key unique and says where the vertex came from.
+            keys[i] = ((long) interleave(quantise(x), quantise(y)) << 32) | i;
+        }
+        Arrays.sort(keys);
+        float[] vertices = new float[count * STRIDE];
+        buffer.position(first * STRIDE);
+        buffer.get(vertices);
+        buffer.position(first * STRIDE);
+        for (int i = 0; i < count; i++) {
+            buffer.put(vertices, (int) keys[i] * STRIDE, STRIDE);
+        }
+    }
+
+    private static int quantise(float value) {
+        int max = (1 << BITS) - 1;
+        int q = (int) ((value + EXTENT) / (2 * EXTENT) * max);
+        return Math.max(0, Math.min(max, q));
+    }
+
+    // Interleave the bits, x in the even bits and y in the odd.
+    private static int interleave(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static int spread(int v) {
+        v = (v | (v << 8)) & 0x00ff00ff;
+        v = (v | (v << 4)) & 0x0f0f0f0f;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+}
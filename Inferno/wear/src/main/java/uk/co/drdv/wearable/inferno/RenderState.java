@@ -0,0 +1,61 @@
+package uk.co.drdv.wearable.inferno;
+
+/**
+ * What has changed since the last frame, so that a burst of engine events
+ * costs one rebuild and one frame.
+ *
+ * Events only mark what they changed.  The first mark asks for a frame and
+ * later ones ride along with it.  The engine takes all the marks at the start
+ * of that frame and brings its state up to date in one go.
+ *
+ * Use on the main thread, which is also where the engine draws.
+ */
+public class RenderState {
+
+    // The time needs reading again.
+    public static final int TIME = 1;
+    // Ambient mode was entered or left.
+    public static final int MODE = 2;
+    // The face was shown.
+    public static final int VISIBILITY = 4;
+    // Vertex data built from the time needs rebuilding.
+    public static final int GEOMETRY = 8;
+
+    private final Runnable redraw;
+    private int dirty;
+    private boolean framePending;
+
+    /**
+     * @param redraw run to ask for a frame.
+     */
+    public RenderState(Runnable redraw) {
+        this.redraw = redraw;
+    }
+
+    public void mark(int flags) {
+        dirty |= flags;
+        if (!framePending) {
+            framePending = true;
+            redraw.run();
+        }
+    }
+
+    /**
+     * Mark without asking for a frame, for use while drawing one.
+     */
+    public void keep(int flags) {
+        dirty |= flags;
+    }
+
+    /**
+     * Call once per frame, when the engine is ready to act on the marks.
+     *
+     * @return everything marked since the last call.
+     */
+    public int take() {
+        int flags = dirty;
+        dirty = 0;
+        framePending = false;
+        return flags;
+    }
+}
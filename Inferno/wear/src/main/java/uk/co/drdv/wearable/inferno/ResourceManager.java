@@ -0,0 +1,218 @@
+package uk.co.drdv.wearable.inferno;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Looks after the GPU and direct-buffer resources of an engine.
+ *
+ * Once the face has been invisible for a while everything is released, and
+ * it is loaded again the next time the face is shown.  Startup works the same
+ * way: decoding happens on a worker thread, then the upload happens at the
+ * start of the next frame.  Frames drawn in the meantime should be left cleared.
+ *
+ * Create on the main thread, which is also where the engine draws.
+ */
+public class ResourceManager {
+
+    /**
+     * Implemented by the engine.
+     */
+    public interface Client {
+        /**
+         * Decode anything that doesn't need GL.  Called on a worker thread.
+         */
+        void loadResources();
+
+        /**
+         * Create the GL resources from what was loaded.  Called on the GL thread.
+         */
+        void uploadResources();
+
+        /**
+         * Free every GL resource and direct buffer.  Called on the main thread,
+         * which may not have the GL context current.
+         */
+        void releaseResources();
+
+        /**
+         * Ask for a frame.  Called on the main thread once loading finishes.
+         */
+        void onResourcesLoaded();
+
+        /**
+         * Drop whatever a load that was overtaken by a release has decoded,
+         * since nothing will upload it.  Called on the worker thread, after
+         * that load and before the next one.
+         */
+        void discardLoad();
+    }
+
+    private static final int RELEASED = 0;
+    private static final int LOADING = 1;
+    private static final int LOADED = 2;
+    private static final int RESIDENT = 3;
+
+    private final Client client;
+    private final long releaseDelayMillis;
+    private final long budgetBytes;
+    private final Handler handler = new Handler();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final Map<String, Long> bytes = new HashMap<String, Long>();
+    private int state = RELEASED;
+    private boolean visible;
+    // Bumped on every release so that a load still running can be ignored.
+    private int generation;
+
+    private final Runnable releaseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            release();
+        }
+    };
+
+    /**
+     * @param releaseDelayMillis how long the face must be invisible before
+     *                           resources are released.
+     * @param budgetBytes        the most we expect to hold.  Going over is
+     *                           logged, and resources are then released as
+     *                           soon as the face is hidden.
+     */
+    public ResourceManager(Client client, long releaseDelayMillis, long budgetBytes) {
+        this.client = client;
+        this.releaseDelayMillis = releaseDelayMillis;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Start decoding on the worker thread if nothing is loaded yet.  The GL
+     * side follows in the first {@link #prepareFrame()} after it finishes.
+     */
+    public void load() {
+        if (state == RELEASED) {
+            loadInBackground();
+        }
+    }
+
+    public void onVisibilityChanged(boolean visible) {
+        this.visible = visible;
+        handler.removeCallbacks(releaseRunnable);
+        if (visible) {
+            load();
+        } else if (getTotalBytes() > budgetBytes) {
+            release();
+        } else {
+            handler.postDelayed(releaseRunnable, releaseDelayMillis);
+        }
+    }
+
+    /**
+     * Call at the start of each frame on the GL thread.  Released resources
+     * are only loaded again while the face is visible, so a frame drawn
+     * while it is hidden doesn't undo the release.
+     *
+     * @return whether resources are resident and the frame can be drawn.
+     */
+    public boolean prepareFrame() {
+        switch (state) {
+            case RESIDENT:
+                return true;
+            case LOADED:
+                upload();
+                return true;
+            case RELEASED:
+                if (visible) {
+                    loadInBackground();
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Record how much memory a resource holds, or 0 once it is freed.
+     */
+    public void setBytes(String name, long size) {
+        if (size == 0) {
+            bytes.remove(name);
+        } else {
+            bytes.put(name, size);
+        }
+    }
+
+    public long getTotalBytes() {
+        long total = 0;
+        for (long size : bytes.values()) {
+            total += size;
+        }
+        return total;
+    }
+
+    public void destroy() {
+        handler.removeCallbacks(releaseRunnable);
+        generation++;
+        discardRunningLoad();
+        worker.shutdown();
+    }
+
+    private void loadInBackground() {
+        state = LOADING;
+        final int loadGeneration = ++generation;
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                client.loadResources();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == loadGeneration && state == LOADING) {
+                            state = LOADED;
+                            client.onResourcesLoaded();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void upload() {
+        client.uploadResources();
+        state = RESIDENT;
+        long total = getTotalBytes();
+        if (total > budgetBytes) {
+            Log.w("GL", "Holding " + total + " bytes, budget is " + budgetBytes);
+        }
+    }
+
+    private void release() {
+        if (state == RELEASED) {
+            return;
+        }
+        generation++;
+        discardRunningLoad();
+        client.releaseResources();
+        bytes.clear();
+        state = RELEASED;
+    }
+
+    // A load still running finishes after releaseResources() and would keep
+    // what it decoded.  The worker runs one task at a time, so this comes
+    // after that load and before any started later.
+    private void discardRunningLoad() {
+        if (state != LOADING) {
+            return;
+        }
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                client.discardLoad();
+            }
+        });
+    }
+}
@@ -7,63 +7,12 @@ import java.nio.FloatBuffer;
 
 public class Shaders {
 
-    private static final String VERTEX_SHADER =
-            "uniform float u_timer;  \n"
-                    + "attribute vec4 a_position;  \n"
-                    + "attribute float a_timeBase;  \n"
-                    + "attribute float a_colour;  \n"
-                    + "varying float v_blend;  \n"
-                    + "varying float v_colour;  \n"
-                    + "void main() {  \n"
-                    + "  v_colour = a_colour;  \n"
-                    + "  v_blend = fract(u_timer * a_timeBase);  \n"
-                    + "  float offset = v_blend * a_timeBase;  \n"
-                    + "  gl_Position = a_position + vec4(0.0, offset * 0.18, 0.0, 0.0);  \n"
-                    + "  gl_PointSize = 10.0;  \n"
-                    + "}  \n";
-
-    private static final String FULL_COLOUR_FRAGMENT_SHADER =
-            "precision mediump float;  \n"
-                    + "uniform sampler2D s_texture;  \n"
-                    + "varying float v_blend;  \n"
-                    + "varying float v_colour;  \n"
-                    + "void main() {  \n"
-                    + "  vec4 colour = texture2D(s_texture, gl_PointCoord);  \n"
-                    + "  float green = colour.g * (1.0 - v_blend);  \n"
-                    + "  float alpha;  \n"
-                    + "  if (v_blend <= 0.1) {  \n"
-                    + "    alpha = v_blend * 0.5;  \n"
-                    + "  } else {  \n"
-                    + "    alpha = 0.5 - v_blend * 0.45;  \n"
-                    + "  }  \n"
-                    + "  if (v_colour > 0.0) {  \n"
-                    + "    gl_FragColor = vec4(colour.r, green, green / 2.0, colour.a * alpha);  \n"
-                    + "  } else {  \n"
-                    + "    gl_FragColor = vec4(green / 2.0, green, colour.b, colour.a * alpha);  \n"
-                    + "  }  \n"
-                    + "}  \n";
-
-    private static final String AMBIENT_FRAGMENT_SHADER =
-            "precision mediump float;  \n"
-                    + "uniform sampler2D s_texture;  \n"
-                    + "void main() {  \n"
-                    + "  gl_FragColor = texture2D(s_texture, gl_PointCoord);  \n"
-                    + "}";
-
-    private static final String LINE_VERTEX_SHADER =
-            "attribute vec4 a_position;  \n"
-                    + "void main() {  \n"
-                    + "  gl_Position = a_position;  \n"
-                    + "}  \n";
-
-    private static final String LINE_FRAGMENT_SHADER =
-            "precision mediump float;  \n"
-                    + "void main() {  \n"
-                    + "  gl_FragColor = vec4(0.3, 0.3, 0.4, 1.0);  \n"
-                    + "}  \n";
+    // The sources live in src/main/glsl.  The build checks and minifies them
+    // into GlslSources, so a shader that won't compile never gets this far.
 
     private int fullColour;
     private int uTimerFC;
+    private int uTiltFC;
     private int positionFC;
     private int timeBaseFC;
     private int colourFC;
@@ -71,57 +20,126 @@ public class Shaders {
 
     private int ambient;
     private int uTimerA;
+    private int uTiltA;
     private int positionA;
     private int timeBaseA;
     private int colourA;
     private int textureA;
 
-    private int line;
-    private int positionL;
-
+    private int blit;
+    private int positionB;
+    private int textureArrayB;
+    private int textureB;
+
+    private int ribbon;
+    private int uTimerR;
+    private int uTiltR;
+    private int positionR;
+    private int directionR;
+    private int cornerR;
+
+    // Programs are compiled the first time they are used, or one at a time
+    // by compileNext() once the first frame is out.  The ribbon program is
+    // only compiled if it is used.
     public Shaders() {
-        createFullColourProgram();
-        createAmbientProgram();
-        createLineProgram();
     }
 
-    public void setFullColourParameters(FloatBuffer vBuffer, float timer) {
+    /**
+     * Compile one program that hasn't been needed yet.
+     *
+     * @return whether there are any left to compile.
+     */
+    public boolean compileNext() {
+        if (fullColour == 0) {
+            createFullColourProgram();
+        } else if (ambient == 0) {
+            createAmbientProgram();
+        } else if (blit == 0) {
+            createBlitProgram();
+        }
+        return fullColour == 0 || ambient == 0 || blit == 0;
+    }
+
+    /**
+     * Use the particle program on x, y, time base, colour vertices from the
+     * bound vertex buffer object.
+     */
+    public void setFullColourParameters(float timer, float tiltX, float tiltY) {
+        if (fullColour == 0) {
+            createFullColourProgram();
+        }
         GLES20.glUseProgram(fullColour);
         GLES20.glUniform1f(uTimerFC, timer);
-        vBuffer.position(0);
-        GLES20.glVertexAttribPointer(positionFC, 2, GLES20.GL_FLOAT, false, 16, vBuffer);
-        vBuffer.position(2);
-        GLES20.glVertexAttribPointer(timeBaseFC, 1, GLES20.GL_FLOAT, false, 16, vBuffer);
-        vBuffer.position(3);
-        GLES20.glVertexAttribPointer(colourFC, 1, GLES20.GL_FLOAT, false, 16, vBuffer);
+        GLES20.glUniform2f(uTiltFC, tiltX, tiltY);
+        GLES20.glVertexAttribPointer(positionFC, 2, GLES20.GL_FLOAT, false, 16, 0);
+        GLES20.glVertexAttribPointer(timeBaseFC, 1, GLES20.GL_FLOAT, false, 16, 8);
+        GLES20.glVertexAttribPointer(colourFC, 1, GLES20.GL_FLOAT, false, 16, 12);
         GLES20.glUniform1i(textureFC, 0);
     }
 
-    public void setAmbientParameters(FloatBuffer vBuffer, float timer) {
+    /**
+     * As {@link #setFullColourParameters(float, float, float)}, for the
+     * ambient snapshot.
+     */
+    public void setAmbientParameters(float timer) {
+        if (ambient == 0) {
+            createAmbientProgram();
+        }
         GLES20.glUseProgram(ambient);
         GLES20.glUniform1f(uTimerA, timer);
-        vBuffer.position(0);
-        GLES20.glVertexAttribPointer(positionA, 2, GLES20.GL_FLOAT, false, 16, vBuffer);
-        vBuffer.position(2);
-        GLES20.glVertexAttribPointer(timeBaseA, 1, GLES20.GL_FLOAT, false, 16, vBuffer);
-        vBuffer.position(3);
-        GLES20.glVertexAttribPointer(colourA, 1, GLES20.GL_FLOAT, false, 16, vBuffer);
+        GLES20.glUniform2f(uTiltA, 0, 1);
+        GLES20.glVertexAttribPointer(positionA, 2, GLES20.GL_FLOAT, false, 16, 0);
+        GLES20.glVertexAttribPointer(timeBaseA, 1, GLES20.GL_FLOAT, false, 16, 8);
+        GLES20.glVertexAttribPointer(colourA, 1, GLES20.GL_FLOAT, false, 16, 12);
         GLES20.glUniform1i(textureA, 0);
     }
 
-    public void setLineParameters(FloatBuffer vBuffer) {
-        GLES20.glUseProgram(line);
-        vBuffer.position(0);
-        GLES20.glVertexAttribPointer(positionL, 2, GLES20.GL_FLOAT, false, 8, vBuffer);
+    public void setRibbonParameters(FloatBuffer ribbonBuffer, float timer,
+                                    float tiltX, float tiltY) {
+        if (ribbon == 0) {
+            createRibbonProgram();
+        }
+        GLES20.glUseProgram(ribbon);
+        GLES20.glUniform1f(uTimerR, timer);
+        GLES20.glUniform2f(uTiltR, tiltX, tiltY);
+        ribbonBuffer.position(0);
+        GLES20.glVertexAttribPointer(positionR, 2, GLES20.GL_FLOAT, false, 28, ribbonBuffer);
+        ribbonBuffer.position(2);
+        GLES20.glVertexAttribPointer(directionR, 2, GLES20.GL_FLOAT, false, 28, ribbonBuffer);
+        ribbonBuffer.position(4);
+        GLES20.glVertexAttribPointer(cornerR, 3, GLES20.GL_FLOAT, false, 28, ribbonBuffer);
+    }
+
+    public void setBlitParameters(FloatBuffer vtBuffer) {
+        if (blit == 0) {
+            createBlitProgram();
+        }
+        GLES20.glUseProgram(blit);
+        vtBuffer.position(0);
+        GLES20.glVertexAttribPointer(positionB, 2, GLES20.GL_FLOAT, false, 16, vtBuffer);
+        vtBuffer.position(2);
+        GLES20.glVertexAttribPointer(textureArrayB, 2, GLES20.GL_FLOAT, false, 16, vtBuffer);
+        GLES20.glUniform1i(textureB, 0);
+    }
+
+    /**
+     * Delete the programs.  The GL context must be current.
+     */
+    public void release() {
+        GLES20.glDeleteProgram(fullColour);
+        GLES20.glDeleteProgram(ambient);
+        GLES20.glDeleteProgram(blit);
+        GLES20.glDeleteProgram(ribbon);
     }
 
     private void createFullColourProgram() {
-        fullColour = createProgram(VERTEX_SHADER, FULL_COLOUR_FRAGMENT_SHADER);
-        uTimerFC = GLES20.glGetUniformLocation(fullColour, "u_timer");
-        positionFC = GLES20.glGetAttribLocation(fullColour, "a_position");
-        timeBaseFC = GLES20.glGetAttribLocation(fullColour, "a_timeBase");
-        colourFC = GLES20.glGetAttribLocation(fullColour, "a_colour");
-        textureFC = GLES20.glGetUniformLocation(fullColour, "s_texture");
+        fullColour = createProgram(GlslSources.PARTICLE_VERTEX, GlslSources.FULL_COLOUR_FRAGMENT);
+        uTimerFC = GLES20.glGetUniformLocation(fullColour, GlslSources.U_TIMER);
+        uTiltFC = GLES20.glGetUniformLocation(fullColour, GlslSources.U_TILT);
+        positionFC = GLES20.glGetAttribLocation(fullColour, GlslSources.A_POSITION);
+        timeBaseFC = GLES20.glGetAttribLocation(fullColour, GlslSources.A_TIME_BASE);
+        colourFC = GLES20.glGetAttribLocation(fullColour, GlslSources.A_COLOUR);
+        textureFC = GLES20.glGetUniformLocation(fullColour, GlslSources.S_TEXTURE);
         GLES20.glEnableVertexAttribArray(positionFC);
         GLES20.glEnableVertexAttribArray(timeBaseFC);
         GLES20.glEnableVertexAttribArray(colourFC);
@@ -129,23 +147,40 @@ public class Shaders {
     }
 
     private void createAmbientProgram() {
-        ambient = createProgram(VERTEX_SHADER, AMBIENT_FRAGMENT_SHADER);
-        uTimerA = GLES20.glGetUniformLocation(ambient, "u_timer");
-        positionA = GLES20.glGetAttribLocation(ambient, "a_position");
-        timeBaseA = GLES20.glGetAttribLocation(ambient, "a_timeBase");
-        colourA = GLES20.glGetAttribLocation(ambient, "a_colour");
-        textureA = GLES20.glGetUniformLocation(ambient, "s_texture");
+        ambient = createProgram(GlslSources.PARTICLE_VERTEX, GlslSources.AMBIENT_FRAGMENT);
+        uTimerA = GLES20.glGetUniformLocation(ambient, GlslSources.U_TIMER);
+        uTiltA = GLES20.glGetUniformLocation(ambient, GlslSources.U_TILT);
+        positionA = GLES20.glGetAttribLocation(ambient, GlslSources.A_POSITION);
+        timeBaseA = GLES20.glGetAttribLocation(ambient, GlslSources.A_TIME_BASE);
+        colourA = GLES20.glGetAttribLocation(ambient, GlslSources.A_COLOUR);
+        textureA = GLES20.glGetUniformLocation(ambient, GlslSources.S_TEXTURE);
         GLES20.glEnableVertexAttribArray(positionA);
         GLES20.glEnableVertexAttribArray(timeBaseA);
         GLES20.glEnableVertexAttribArray(colourA);
         checkProgram(ambient);
     }
 
-    private void createLineProgram() {
-        line = createProgram(LINE_VERTEX_SHADER, LINE_FRAGMENT_SHADER);
-        positionL = GLES20.glGetAttribLocation(line, "a_position");
-        GLES20.glEnableVertexAttribArray(positionL);
-        checkProgram(line);
+    private void createBlitProgram() {
+        blit = createProgram(GlslSources.BLIT_VERTEX, GlslSources.BLIT_FRAGMENT);
+        positionB = GLES20.glGetAttribLocation(blit, GlslSources.A_POSITION);
+        textureArrayB = GLES20.glGetAttribLocation(blit, GlslSources.A_TEX_COORD);
+        textureB = GLES20.glGetUniformLocation(blit, GlslSources.S_TEXTURE);
+        GLES20.glEnableVertexAttribArray(positionB);
+        GLES20.glEnableVertexAttribArray(textureArrayB);
+        checkProgram(blit);
+    }
+
+    private void createRibbonProgram() {
+        ribbon = createProgram(GlslSources.RIBBON_VERTEX, GlslSources.RIBBON_FRAGMENT);
+        uTimerR = GLES20.glGetUniformLocation(ribbon, GlslSources.U_TIMER);
+        uTiltR = GLES20.glGetUniformLocation(ribbon, GlslSources.U_TILT);
+        positionR = GLES20.glGetAttribLocation(ribbon, GlslSources.A_POSITION);
+        directionR = GLES20.glGetAttribLocation(ribbon, GlslSources.A_DIRECTION);
+        cornerR = GLES20.glGetAttribLocation(ribbon, GlslSources.A_CORNER);
+        GLES20.glEnableVertexAttribArray(positionR);
+        GLES20.glEnableVertexAttribArray(directionR);
+        GLES20.glEnableVertexAttribArray(cornerR);
+        checkProgram(ribbon);
     }
 
     private int createProgram(String vertex, String fragment) {
@@ -156,6 +191,9 @@ public class Shaders {
         GLES20.glAttachShader(program, fragmentShader);
         GLES20.glLinkProgram(program);
         checkProgram(program);
+        // Flag the shaders so they go when the program is deleted.
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
         return program;
     }
 
@@ -0,0 +1,123 @@
+package uk.co.drdv.wearable.inferno;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * A rough software model of a tile-based GPU, for comparing vertex orders.
+ *
+ * Like the GPU, it works in two passes.  Binning goes through the point
+ * sprites in the order they are submitted and adds each to a list for every
+ * screen tile it covers.  Rendering then takes the tiles one at a time,
+ * loading the tile, drawing its list in submission order and storing it.
+ * Each tile is loaded and stored once whatever the order, so what the order
+ * changes is how the vertices a tile's list refers to are fetched.  That is
+ * modelled as a small cache of 64 byte lines, least recently used going
+ * first, emptied for each tile.  Only the numbers matter, nothing is drawn.
+ */
+public class TileSimulator {
+
+    // Each vertex is x, y, time base, colour.
+    private static final int STRIDE = 4;
+    private static final int VERTEX_BYTES = STRIDE * 4;
+    private static final int LINE_BYTES = 64;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    public static class Result {
+        public long fragments;
+        public int tiles; // Tiles with anything in them.
+        public long tileBytes; // Loading and storing those tiles.
+        public int binned; // Vertices in all the tiles' lists.
+        public int lineMisses; // Vertex fetches that missed the cache.
+
+        @Override
+        public String toString() {
+            return fragments + " fragments, " + tiles + " tiles, " + tileBytes / 1024
+                    + "KB tile traffic, " + binned + " binned vertices, " + lineMisses
+                    + " vertex line misses, " + lineMisses * LINE_BYTES / 1024 + "KB fetched";
+        }
+    }
+
+    private final int screenWidth;
+    private final int screenHeight;
+    private final int tileSize;
+    private final int tilesX;
+    private final int tilesY;
+    private final int[] cache;
+
+    /**
+     * @param cachedLines how many 64 byte lines of vertices the GPU holds.
+     */
+    public TileSimulator(int screenWidth, int screenHeight, int tileSize, int cachedLines) {
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.tileSize = tileSize;
+        tilesX = (screenWidth + tileSize - 1) / tileSize;
+        tilesY = (screenHeight + tileSize - 1) / tileSize;
+        cache = new int[cachedLines];
+    }
+
+    /**
+     * Draw count particles from vertex first, where they sit before they
+     * start to float upwards.
+     */
+    public Result run(FloatBuffer buffer, int first, int count, float pointSize) {
+        Result result = new Result();
+        int[][] bins = new int[tilesX * tilesY][];
+        int[] binSizes = new int[tilesX * tilesY];
+        for (int i = 0; i < count; i++) {
+            float x = (buffer.get((first + i) * STRIDE) + 1) / 2 * screenWidth;
+            float y = (1 - buffer.get((first + i) * STRIDE + 1)) / 2 * screenHeight;
+            int left = Math.max(0, (int) (x - pointSize / 2));
+            int right = Math.min(screenWidth, (int) (x + pointSize / 2));
+            int top = Math.max(0, (int) (y - pointSize / 2));
+            int bottom = Math.min(screenHeight, (int) (y + pointSize / 2));
+            if (left >= right || top >= bottom) {
+                continue;
+            }
+            result.fragments += (right - left) * (bottom - top);
+            for (int ty = top / tileSize; ty <= (bottom - 1) / tileSize; ty++) {
+                for (int tx = left / tileSize; tx <= (right - 1) / tileSize; tx++) {
+                    int tile = ty * tilesX + tx;
+                    if (bins[tile] == null) {
+                        bins[tile] = new int[16];
+                    } else if (binSizes[tile] == bins[tile].length) {
+                        bins[tile] = Arrays.copyOf(bins[tile], binSizes[tile] * 2);
+                    }
+                    bins[tile][binSizes[tile]++] = first + i;
+                }
+            }
+        }
+        for (int tile = 0; tile < bins.length; tile++) {
+            if (binSizes[tile] == 0) {
+                continue;
+            }
+            result.tiles++;
+            result.tileBytes += 2L * tileSize * tileSize * BYTES_PER_PIXEL;
+            result.binned += binSizes[tile];
+            int cached = 0;
+            for (int i = 0; i < binSizes[tile]; i++) {
+                cached = fetch(bins[tile][i] * VERTEX_BYTES / LINE_BYTES, cached, result);
+            }
+        }
+        return result;
+    }
+
+    // Move the line to the front of the cache, fetching it if it isn't there.
+    private int fetch(int line, int cached, Result result) {
+        int found = 0;
+        while (found < cached && cache[found] != line) {
+            found++;
+        }
+        if (found == cached) {
+            result.lineMisses++;
+            if (cached < cache.length) {
+                cached++;
+            }
+            found = cached - 1;
+        }
+        System.arraycopy(cache, 0, cache, 1, found);
+        cache[0] = line;
+        return cached;
+    }
+}
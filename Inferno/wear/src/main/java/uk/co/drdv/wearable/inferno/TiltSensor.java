@@ -0,0 +1,145 @@
+package uk.co.drdv.wearable.inferno;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+/**
+ * Turns wrist orientation into a direction for the flames to rise in.
+ *
+ * Raw samples are only queued as they arrive.  The queue is low-pass
+ * filtered in a single pass once per frame by {@link #update()}, and the
+ * shaders then read one smoothed unit vector.
+ */
+public class TiltSensor {
+
+    // Samples queued between frames.  If we fall behind the oldest are dropped.
+    private static final int MAX_SAMPLES = 64;
+    // Weight given to each new sample by the low-pass filter.
+    private static final float ALPHA = 0.1f;
+
+    /**
+     * Where samples come from.  The accelerometer on a watch, or
+     * FakeTiltSource in the unit tests, which calls
+     * {@link TiltSensor#addSample(float)} directly.
+     */
+    public interface Source {
+        void start(TiltSensor tiltSensor);
+
+        void stop();
+    }
+
+    private final Source source;
+    private final float[] samples = new float[MAX_SAMPLES];
+    private int sampleCount;
+    private boolean started;
+    private float lean;
+    private float x = 0;
+    private float y = 1;
+
+    public TiltSensor(Source source) {
+        this.source = source;
+    }
+
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        source.start(this);
+    }
+
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        source.stop();
+        synchronized (samples) {
+            sampleCount = 0;
+        }
+    }
+
+    /**
+     * @param lean sideways component of "up" on the face, -1 towards 9 o'clock, 1 towards 3.
+     */
+    public void addSample(float lean) {
+        synchronized (samples) {
+            if (sampleCount == MAX_SAMPLES) {
+                System.arraycopy(samples, 1, samples, 0, MAX_SAMPLES - 1);
+                sampleCount--;
+            }
+            samples[sampleCount++] = lean;
+        }
+    }
+
+    /**
+     * Filter everything queued since the last frame.  Call once per frame.
+     */
+    public void update() {
+        synchronized (samples) {
+            for (int i = 0; i < sampleCount; i++) {
+                lean += (samples[i] - lean) * ALPHA;
+            }
+            sampleCount = 0;
+        }
+        x = Math.max(-1, Math.min(1, lean));
+        y = (float) Math.sqrt(1 - x * x);
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * Reads the accelerometer with hardware batching, so the CPU is only woken
+     * when the sensor FIFO is flushed rather than for every sample.
+     */
+    public static class AccelerometerSource implements Source, SensorEventListener {
+
+        private static final int SAMPLING_PERIOD_US = 50000;
+        private static final int MAX_REPORT_LATENCY_US = 250000;
+
+        private final SensorManager sensorManager;
+        private TiltSensor tiltSensor;
+
+        public AccelerometerSource(SensorManager sensorManager) {
+            this.sensorManager = sensorManager;
+        }
+
+        @Override
+        public void start(TiltSensor tiltSensor) {
+            Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+            if (sensor == null) {
+                return;
+            }
+            this.tiltSensor = tiltSensor;
+            sensorManager.registerListener(this, sensor,
+                    SAMPLING_PERIOD_US, MAX_REPORT_LATENCY_US);
+        }
+
+        @Override
+        public void stop() {
+            sensorManager.unregisterListener(this);
+            tiltSensor = null;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            if (tiltSensor != null) {
+                // At rest the accelerometer reads the reaction to gravity,
+                // so x is already the sideways component of "up".
+                tiltSensor.addSample(event.values[0] / SensorManager.GRAVITY_EARTH);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package uk.co.drdv.wearable.inferno;
+
+/**
+ * Stands in for the accelerometer off-device.  Samples are handed over the
+ * way a flushed sensor FIFO delivers them, as a batch between frames.
+ */
+public class FakeTiltSource implements TiltSensor.Source {
+
+    private TiltSensor tiltSensor;
+    private int starts;
+    private int stops;
+
+    @Override
+    public void start(TiltSensor tiltSensor) {
+        this.tiltSensor = tiltSensor;
+        starts++;
+    }
+
+    @Override
+    public void stop() {
+        tiltSensor = null;
+        stops++;
+    }
+
+    /**
+     * Deliver a batch of samples.  Dropped, as a real sensor's would be, if
+     * the source isn't started.
+     */
+    public void deliver(float... leans) {
+        if (tiltSensor == null) {
+            return;
+        }
+        for (float lean : leans) {
+            tiltSensor.addSample(lean);
+        }
+    }
+
+    public int getStarts() {
+        return starts;
+    }
+
+    public int getStops() {
+        return stops;
+    }
+}
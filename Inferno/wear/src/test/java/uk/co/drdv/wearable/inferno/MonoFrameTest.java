@@ -0,0 +1,185 @@
+package uk.co.drdv.wearable.inferno;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MonoFrameTest {
+
+    // In step with InfernoWatchFaceService.
+    private static final int MAX_MONO_CLEARS = 1024;
+    private static final int POINT_SIZE = 10;
+    private static final float AMBIENT_TIMER = 0.1f;
+    // particle_16.png as createMonoStamp() shrinks it to POINT_SIZE.
+    private static final String[] STAMP = {
+            "..........",
+            "..........",
+            "....##....",
+            "...####...",
+            "..#####...",
+            "..#####...",
+            "...####...",
+    };
+
+    @Test
+    public void setIgnoresPixelsOutsideTheFrame() {
+        MonoFrame frame = new MonoFrame(40, 3);
+        frame.set(-1, 0);
+        frame.set(40, 0);
+        frame.set(0, 3);
+        frame.set(33, 2);
+        assertEquals(1, frame.countSet());
+        assertTrue(frame.get(33, 2));
+        assertFalse(frame.get(32, 2));
+    }
+
+    @Test
+    public void stampIsClippedToTheFrame() {
+        MonoFrame mask = new MonoFrame(3, 3);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                mask.set(x, y);
+            }
+        }
+        MonoFrame frame = new MonoFrame(10, 10);
+        frame.stamp(mask, -1, 8);
+        assertEquals(4, frame.countSet());
+        assertTrue(frame.get(0, 8));
+        assertTrue(frame.get(1, 9));
+    }
+
+    @Test
+    public void emptyFrameNeedsNoClears() {
+        assertEquals(0, new MonoFrame(64, 64).plan(10));
+    }
+
+    @Test
+    public void runRepeatedDownRowsIsOneClear() {
+        MonoFrame frame = new MonoFrame(64, 64);
+        for (int y = 10; y < 20; y++) {
+            for (int x = 30; x < 40; x++) {
+                frame.set(x, y);
+            }
+        }
+        assertEquals(1, frame.plan(10));
+        int[] rects = frame.getRects();
+        assertEquals(30, rects[0]);
+        assertEquals(10, rects[1]);
+        assertEquals(40, rects[2]);
+        assertEquals(20, rects[3]);
+    }
+
+    @Test
+    public void runsOfDifferentWidthsAreNotJoined() {
+        MonoFrame frame = new MonoFrame(64, 64);
+        for (int x = 30; x < 40; x++) {
+            frame.set(x, 0);
+        }
+        for (int x = 30; x < 41; x++) {
+            frame.set(x, 1);
+        }
+        assertEquals(2, frame.plan(10));
+    }
+
+    @Test
+    public void clearsCoverExactlyTheWhitePixels() {
+        Random random = new Random(1);
+        MonoFrame frame = new MonoFrame(100, 80);
+        for (int i = 0; i < 2000; i++) {
+            frame.set(random.nextInt(100), random.nextInt(80));
+        }
+        int clears = frame.plan(Integer.MAX_VALUE - 1);
+        int[] rects = frame.getRects();
+        MonoFrame covered = new MonoFrame(100, 80);
+        int area = 0;
+        for (int i = 0; i < clears * 4; i += 4) {
+            for (int y = rects[i + 1]; y < rects[i + 3]; y++) {
+                for (int x = rects[i]; x < rects[i + 2]; x++) {
+                    assertTrue(frame.get(x, y));
+                    covered.set(x, y);
+                }
+            }
+            area += (rects[i + 2] - rects[i]) * (rects[i + 3] - rects[i + 1]);
+        }
+        // No white pixel missed, and none cleared twice.
+        assertEquals(frame.countSet(), covered.countSet());
+        assertEquals(frame.countSet(), area);
+    }
+
+    @Test
+    public void planGivesUpPastTheLimit() {
+        MonoFrame frame = new MonoFrame(64, 64);
+        for (int y = 0; y < 64; y++) {
+            for (int x = y & 1; x < 64; x += 2) {
+                frame.set(x, y);
+            }
+        }
+        // A checkerboard is a clear for every white pixel.
+        assertEquals(64 * 32, frame.plan(64 * 32));
+        assertEquals(101, frame.plan(100));
+        assertEquals(101, frame.getClears());
+    }
+
+    /**
+     * The hub and hands the way the engine stamps them for ambient mode, at
+     * every tenth minute round the clock.  At 454 pixels they take 170 to
+     * 240 clears, well inside the limit.
+     */
+    @Test
+    public void hubAndHandsFitTheClearLimit() {
+        MonoFrame stamp = new MonoFrame(POINT_SIZE, POINT_SIZE);
+        for (int y = 0; y < STAMP.length; y++) {
+            for (int x = 0; x < POINT_SIZE; x++) {
+                if (STAMP[y].charAt(x) == '#') {
+                    stamp.set(x, y);
+                }
+            }
+        }
+        Random random = new Random(1);
+        int most = 0;
+        for (int minutes = 0; minutes < 12 * 60; minutes += 10) {
+            MonoFrame frame = new MonoFrame(454, 454);
+            for (int d = 0; d < 480; d++) {
+                double angle = Math.toRadians(d * 360.0 / 480.0);
+                stampParticle(frame, stamp, random, 0.1 * Math.sin(angle),
+                        0.1 * Math.cos(angle));
+            }
+            double hour = Math.toRadians(minutes / 2.0);
+            double minute = Math.toRadians(minutes % 60 * 6);
+            stampHand(frame, stamp, random, hour, 5, 256);
+            stampHand(frame, stamp, random, minute, 8, 448);
+            int clears = frame.plan(MAX_MONO_CLEARS);
+            assertTrue(clears <= MAX_MONO_CLEARS);
+            most = Math.max(most, clears);
+        }
+        assertTrue("Only " + most + " clears", most > 100);
+    }
+
+    private void stampHand(MonoFrame frame, MonoFrame stamp, Random random, double angle,
+                           double length, int particles) {
+        double startX = 0.1 * Math.sin(angle);
+        double startY = 0.1 * Math.cos(angle);
+        for (int i = 0; i < particles; i++) {
+            double along = 1 + (length - 1) * i / particles;
+            stampParticle(frame, stamp, random, startX * along, startY * along);
+        }
+    }
+
+    // Jittered and frozen part way up their rise, as the engine has them.
+    private void stampParticle(MonoFrame frame, MonoFrame stamp, Random random,
+                               double x, double y) {
+        x += random.nextDouble() * 0.025 - 0.0125;
+        y += random.nextDouble() * 0.025 - 0.0125;
+        float timeBase = random.nextFloat();
+        float blend = AMBIENT_TIMER * timeBase;
+        blend -= (float) Math.floor(blend);
+        y += blend * timeBase * 0.18f;
+        int screenX = (int) ((x + 1) / 2 * frame.getWidth());
+        int screenY = (int) ((1 - y) / 2 * frame.getHeight());
+        frame.stamp(stamp, screenX - POINT_SIZE / 2, screenY - POINT_SIZE / 2);
+    }
+}
@@ -0,0 +1,65 @@
+package uk.co.drdv.wearable.inferno;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A profiler backend whose results are set by the test.  Every slot polls as
+ * not ready until {@link #finish(int, long)} gives it a result, and goes back
+ * to not ready once that has been polled.
+ */
+public class ScriptedBackend implements Profiler.Backend {
+
+    private final long[] results = new long[64];
+    private final List<Integer> begun = new ArrayList<Integer>();
+    private final List<Integer> ended = new ArrayList<Integer>();
+    private boolean released;
+
+    public ScriptedBackend() {
+        Arrays.fill(results, Profiler.NOT_READY);
+    }
+
+    @Override
+    public void begin(int slot) {
+        begun.add(slot);
+    }
+
+    @Override
+    public void end(int slot) {
+        ended.add(slot);
+    }
+
+    @Override
+    public long poll(int slot) {
+        long result = results[slot];
+        if (result != Profiler.NOT_READY) {
+            results[slot] = Profiler.NOT_READY;
+        }
+        return result;
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+
+    /**
+     * Make the next poll of slot return nanos, or {@link Profiler#DISCARDED}.
+     */
+    public void finish(int slot, long nanos) {
+        results[slot] = nanos;
+    }
+
+    public List<Integer> getBegun() {
+        return begun;
+    }
+
+    public List<Integer> getEnded() {
+        return ended;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+}
@@ -0,0 +1,139 @@
+package uk.co.drdv.wearable.inferno;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TileSimulatorTest {
+
+    // In step with InfernoWatchFaceService.
+    private static final int HUB = 12 * 40;
+    private static final int HANDS = 256 + 448;
+    private static final int POINT_SIZE = 10;
+
+    @Test
+    public void pointInsideATileIsBinnedOnce() {
+        FloatBuffer buffer = vertices(1);
+        putPixel(buffer, 64, 64, 25, 25);
+        TileSimulator.Result result = new TileSimulator(64, 64, 16, 8).run(buffer, 0, 1, 10);
+        assertEquals(100, result.fragments);
+        assertEquals(1, result.tiles);
+        assertEquals(2 * 16 * 16 * 4, result.tileBytes);
+        assertEquals(1, result.binned);
+        assertEquals(1, result.lineMisses);
+    }
+
+    @Test
+    public void pointOverATileCornerIsBinnedIntoFour() {
+        FloatBuffer buffer = vertices(1);
+        putPixel(buffer, 64, 64, 32, 32);
+        TileSimulator.Result result = new TileSimulator(64, 64, 16, 8).run(buffer, 0, 1, 10);
+        assertEquals(100, result.fragments);
+        assertEquals(4, result.tiles);
+        assertEquals(4, result.binned);
+        // The cache starts empty for each tile.
+        assertEquals(4, result.lineMisses);
+    }
+
+    @Test
+    public void pointsOffScreenAreSkipped() {
+        FloatBuffer buffer = vertices(2);
+        putPixel(buffer, 64, 64, -20, 30);
+        putPixel(buffer, 64, 64, 30, 90);
+        TileSimulator.Result result = new TileSimulator(64, 64, 16, 8).run(buffer, 0, 2, 10);
+        assertEquals(0, result.fragments);
+        assertEquals(0, result.tiles);
+    }
+
+    @Test
+    public void verticesSharingALineAreFetchedOnce() {
+        FloatBuffer buffer = vertices(5);
+        for (int i = 0; i < 5; i++) {
+            putPixel(buffer, 64, 64, 8, 8);
+        }
+        // Four 16 byte vertices to a 64 byte line.
+        TileSimulator.Result result = new TileSimulator(64, 64, 16, 8).run(buffer, 0, 5, 4);
+        assertEquals(5, result.binned);
+        assertEquals(2, result.lineMisses);
+    }
+
+    /**
+     * What MORTON_ORDER's comment rests on: over a day of hub and hand
+     * layouts, Z-order bins exactly the same tiles and vertices as the order
+     * they are built in, and saves no more than 5% of the vertex fetches.
+     */
+    @Test
+    public void zOrderOnlySavesAFewVertexFetches() {
+        for (int size : new int[] {320, 400, 454}) {
+            TileSimulator simulator = new TileSimulator(size, size, 16, 8);
+            long asBuilt = 0;
+            long zOrder = 0;
+            for (int frame = 0; frame < 48; frame++) {
+                FloatBuffer buffer = hubAndHands(new Random(frame), frame / 4, frame * 17 % 60);
+                TileSimulator.Result current = simulator.run(buffer, 0, HUB + HANDS, POINT_SIZE);
+                MortonOrder.sort(buffer, 0, HUB);
+                MortonOrder.sort(buffer, HUB, HANDS);
+                TileSimulator.Result morton = simulator.run(buffer, 0, HUB + HANDS, POINT_SIZE);
+                assertEquals(current.fragments, morton.fragments);
+                assertEquals(current.tiles, morton.tiles);
+                assertEquals(current.binned, morton.binned);
+                asBuilt += current.lineMisses;
+                zOrder += morton.lineMisses;
+            }
+            assertTrue(size + " pixels: " + asBuilt + " misses as built, " + zOrder
+                    + " in Z-order", zOrder <= asBuilt && zOrder >= asBuilt * 0.95);
+        }
+    }
+
+    private static FloatBuffer vertices(int count) {
+        return ByteBuffer.allocateDirect(count * 4 * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    // A vertex centred on the given pixel.
+    private static void putPixel(FloatBuffer buffer, int width, int height, float x, float y) {
+        buffer.put(x * 2 / width - 1);
+        buffer.put(1 - y * 2 / height);
+        buffer.put(0);
+        buffer.put(1);
+    }
+
+    // Built as the engine builds them.
+    private static FloatBuffer hubAndHands(Random random, int hour, int minute) {
+        FloatBuffer buffer = vertices(HUB + HANDS);
+        for (int d = 0; d < HUB; d++) {
+            double angle = Math.toRadians(d * 360.0 / 480.0);
+            put(buffer, random, 0.1 * Math.sin(angle), 0.1 * Math.cos(angle));
+        }
+        double minuteAngle = Math.toRadians(minute * 6);
+        double hourAngle = Math.toRadians(hour * 30 + minute / 2.0);
+        strip(buffer, random, hourAngle, 5, 256);
+        strip(buffer, random, minuteAngle, 8, 448);
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void strip(FloatBuffer buffer, Random random, double angle, double length,
+                              int count) {
+        double startX = 0.1 * Math.sin(angle);
+        double startY = 0.1 * Math.cos(angle);
+        for (int i = 0; i < count; i++) {
+            double along = 1 + (length - 1) * i / count;
+            put(buffer, random, startX * along, startY * along);
+        }
+    }
+
+    private static void put(FloatBuffer buffer, Random random, double x, double y) {
+        buffer.put((float) (x + random.nextDouble() * 0.025 - 0.0125));
+        buffer.put((float) (y + random.nextDouble() * 0.025 - 0.0125));
+        buffer.put((float) random.nextDouble());
+        buffer.put(1);
+    }
+}
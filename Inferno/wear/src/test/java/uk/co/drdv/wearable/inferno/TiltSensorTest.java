@@ -0,0 +1,119 @@
+package uk.co.drdv.wearable.inferno;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class TiltSensorTest {
+
+    // In step with TiltSensor.
+    private static final float ALPHA = 0.1f;
+    private static final int MAX_SAMPLES = 64;
+    private static final float DELTA = 1e-6f;
+
+    private FakeTiltSource source;
+    private TiltSensor tiltSensor;
+
+    @Before
+    public void setUp() {
+        source = new FakeTiltSource();
+        tiltSensor = new TiltSensor(source);
+        tiltSensor.start();
+    }
+
+    @Test
+    public void startsUpright() {
+        tiltSensor.update();
+        assertEquals(0, tiltSensor.getX(), DELTA);
+        assertEquals(1, tiltSensor.getY(), DELTA);
+    }
+
+    @Test
+    public void startAndStopReachTheSourceOnce() {
+        tiltSensor.start();
+        tiltSensor.stop();
+        tiltSensor.stop();
+        assertEquals(1, source.getStarts());
+        assertEquals(1, source.getStops());
+    }
+
+    @Test
+    public void updateSmoothsTheBatchInOrder() {
+        source.deliver(0.5f, 0.2f, -0.4f);
+        tiltSensor.update();
+        float lean = 0;
+        for (float sample : new float[]{0.5f, 0.2f, -0.4f}) {
+            lean += (sample - lean) * ALPHA;
+        }
+        assertEquals(lean, tiltSensor.getX(), DELTA);
+        assertEquals((float) Math.sqrt(1 - lean * lean), tiltSensor.getY(), DELTA);
+    }
+
+    @Test
+    public void smoothingCarriesOverBetweenFrames() {
+        source.deliver(1);
+        tiltSensor.update();
+        source.deliver(1);
+        tiltSensor.update();
+        assertEquals(1 - (1 - ALPHA) * (1 - ALPHA), tiltSensor.getX(), DELTA);
+    }
+
+    @Test
+    public void updateWithNothingQueuedKeepsTheDirection() {
+        source.deliver(0.8f);
+        tiltSensor.update();
+        float x = tiltSensor.getX();
+        tiltSensor.update();
+        assertEquals(x, tiltSensor.getX(), DELTA);
+    }
+
+    @Test
+    public void leanIsClampedToAUnitVector() {
+        float[] samples = new float[MAX_SAMPLES];
+        Arrays.fill(samples, -3);
+        source.deliver(samples);
+        tiltSensor.update();
+        assertEquals(-1, tiltSensor.getX(), DELTA);
+        assertEquals(0, tiltSensor.getY(), DELTA);
+    }
+
+    @Test
+    public void overflowDropsTheOldestSamples() {
+        float[] old = new float[36];
+        Arrays.fill(old, 10);
+        source.deliver(old);
+        // Fills the queue, pushing out every one of the old samples.
+        source.deliver(new float[MAX_SAMPLES]);
+        tiltSensor.update();
+        assertEquals(0, tiltSensor.getX(), DELTA);
+    }
+
+    @Test
+    public void overflowKeepsTheNewestSamples() {
+        float[] samples = new float[MAX_SAMPLES + 1];
+        samples[MAX_SAMPLES] = 0.5f;
+        source.deliver(samples);
+        tiltSensor.update();
+        assertEquals(0.5f * ALPHA, tiltSensor.getX(), DELTA);
+    }
+
+    @Test
+    public void stopDiscardsQueuedSamples() {
+        source.deliver(0.9f);
+        tiltSensor.stop();
+        tiltSensor.update();
+        assertEquals(0, tiltSensor.getX(), DELTA);
+    }
+
+    @Test
+    public void samplesAreIgnoredWhileStopped() {
+        tiltSensor.stop();
+        source.deliver(0.9f);
+        tiltSensor.start();
+        tiltSensor.update();
+        assertEquals(0, tiltSensor.getX(), DELTA);
+    }
+}